@@ -26,9 +26,22 @@ public class CdfConstants {
   public static final String PLUGIN_LANGUAGES_DIR = PLUGIN_RESOURCES_DIR + "languages/";
   public static final String PLUGIN_HIBERNATE_DIR = PLUGIN_RESOURCES_DIR + "hibernate/";
 
+  public static final String PLUGIN_SETTINGS_MAX_AGE = "settings/max-age";
   public static final String PLUGIN_SETTINGS_DOWNLOADABLE_FORMATS = "settings/resources/downloadable-formats";
   public static final String PLUGIN_SETTINGS_HIBERNATE_AVAILABLE = "settings/hibernate-available";
   public static final String PLUGIN_SETTINGS_LEGACY_DASHBOARD_CONTEXT = "settings/legacy-dashboard-context";
+  public static final String PLUGIN_SETTINGS_HEADERS_RELOAD_INTERVAL = "settings/headers-reload-interval";
+  public static final String PLUGIN_SETTINGS_CONTENT_HASH_VERSIONING = "settings/content-hash-versioning";
+  public static final String PLUGIN_SETTINGS_HEADERS_WARM_UP = "settings/headers-warm-up";
+  public static final String PLUGIN_SETTINGS_PRELOAD_HEADERS = "settings/preload-headers";
+  public static final String PLUGIN_SETTINGS_EARLY_HINTS = "settings/early-hints";
+  public static final String PLUGIN_SETTINGS_EARLY_FLUSH = "settings/early-flush";
+  public static final String PLUGIN_SETTINGS_RENDER_STAGE_TIMEOUT = "settings/render-stage-timeout";
+  public static final String PLUGIN_SETTINGS_RENDER_CACHE = "settings/render-cache";
+  public static final String PLUGIN_SETTINGS_ETAGS = "settings/etags";
+  public static final String PLUGIN_SETTINGS_RESOLUTION_CACHE_TTL = "settings/resolution-cache-ttl";
+  public static final String PLUGIN_SETTINGS_AUTO_INCLUDE_QUERY_TIMEOUT = "settings/auto-include-query-timeout";
+  public static final String PLUGIN_SETTINGS_AUTO_INCLUDE_TIMEOUT = "settings/auto-include-timeout";
 
   //CORS util constants
   public static final String PLUGIN_SETTINGS_ALLOW_CROSS_DOMAIN_RESOURCES = "settings/allow-cross-domain-resources";
@@ -55,6 +68,8 @@ public class CdfConstants {
   public static final String COMPONENT_TYPE_TIMEPLOT_REGEX = "timeplot";
   public static final String COMPONENT_TYPE_AUTOCOMPLETE_REGEX = "(simple)?autocomplete";
   public static final String COMPONENT_TYPE_MAP_REGEX = "(new)?map";
+  // matches a component declaration of a type, given a regex for the start of its name
+  public static final String COMPONENT_TYPE_PATTERN = "type:\\s*[\"'](?i)%s[a-z]*[\"']";
 
   public static final String INLINE_SCRIPT =
       "<script language=\"javascript\" type=\"text/javascript\">\n{0}\n</script>";
@@ -37,6 +37,8 @@ public interface ICdfEnvironment {
 
   public Locale getLocale();
 
+  public String getUserName();
+
   public String getSystemEncoding();
 
   public IResourceLoader getResourceLoader();
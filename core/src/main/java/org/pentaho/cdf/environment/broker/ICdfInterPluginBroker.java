@@ -21,6 +21,15 @@ public interface ICdfInterPluginBroker {
 
   public void addCdaQueries( JSONObject queries, String cdaPath );
 
+  /**
+   * Adds the queries of several cda files, e.g. all those auto-included in a dashboard.
+   */
+  public default void addCdaQueries( JSONObject queries, List<String> cdaPaths ) {
+    for ( String cdaPath : cdaPaths ) {
+      addCdaQueries( queries, cdaPath );
+    }
+  }
+
   public List<String> listCdaQueries( String cda );
 
   public String executeCdaQuery( String path, String id );
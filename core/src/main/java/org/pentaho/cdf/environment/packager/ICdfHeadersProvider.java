@@ -13,11 +13,83 @@
 
 package org.pentaho.cdf.environment.packager;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.regex.Pattern;
+
+import org.pentaho.cdf.CdfConstants;
+
+import pt.webdetails.cpf.utils.CharsetHelper;
 
 public interface ICdfHeadersProvider {
 
   public String getHeaders( String dashboardType, boolean isDebugMode, List<String> componentTypes );
 
   public String getHeaders( String dashboardType, boolean isDebugMode, String absRoot, List<String> componentTypes );
+
+  /**
+   * Writes the same includes as {@link #getHeaders(String, boolean, String, List)}, encoded with the system charset.
+   *
+   * @param absRoot protocol+domain to prepend to include urls, null for relative ones
+   */
+  public default void writeHeaders( OutputStream out, String dashboardType, boolean isDebugMode, String absRoot,
+                                    List<String> componentTypes ) throws IOException {
+    String headers = absRoot != null ? getHeaders( dashboardType, isDebugMode, absRoot, componentTypes )
+        : getHeaders( dashboardType, isDebugMode, componentTypes );
+    out.write( headers.getBytes( CharsetHelper.getEncoding() ) );
+  }
+
+  /**
+   * @param dashboardContent dashboard html
+   * @return components used in the dashboard that have specific includes, in include order
+   */
+  public default List<String> getComponentTypes( String dashboardContent ) {
+    List<String> componentTypes = new ArrayList<String>();
+    for ( String[] componentType : CdfConstants.DASHBOARD_COMPONENT_TYPES ) {
+      // Screen Scrap to get component types from dashboardContent
+      if ( Pattern.compile( String.format( CdfConstants.COMPONENT_TYPE_PATTERN, componentType[ 0 ] ) )
+          .matcher( dashboardContent ).find() ) {
+        componentTypes.add( componentType[ 1 ] );
+      }
+    }
+    return componentTypes;
+  }
+
+  /**
+   * Same as {@link #getComponentTypes(String)}, for a dashboard file whose content only changes with its version.
+   *
+   * @param dashboardContent dashboard html
+   * @param dashboardVersion dashboard path and version, null if unknown
+   * @return components used in the dashboard that have specific includes, in include order
+   */
+  public default List<String> getComponentTypes( String dashboardContent, String dashboardVersion ) {
+    return getComponentTypes( dashboardContent );
+  }
+
+  /**
+   * @param absRoot protocol+domain prepended to the include urls, as for
+   * {@link #writeHeaders(OutputStream, String, boolean, String, List)}, null for relative ones
+   * @return values for 'Link' response headers preloading the scripts and styles of a dashboard type
+   */
+  public default List<String> getPreloadLinks( String dashboardType, boolean isDebugMode, String absRoot ) {
+    return Collections.emptyList();
+  }
+
+  /**
+   * @param path file path, relative to the plugin system folder
+   * @return if the file is a build time bundle, named after the hash of its contents
+   */
+  public default boolean isPrebuiltBundle( String path ) {
+    return false;
+  }
+
+  /**
+   * @return a value that changes whenever the includes may have changed, 0 if not tracked
+   */
+  public default long getVersion() {
+    return 0;
+  }
 }
@@ -0,0 +1,222 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.packager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import pt.webdetails.cpf.packager.JSMin;
+
+/**
+ * Concatenates the script and style packages of each dashboard type at build time into content hashed bundles,
+ * along with their gzip siblings and a manifest ( {@value CdfHeadersProvider#BUNDLE_MANIFEST} ) that
+ * {@link CdfHeadersProvider} uses instead of packaging them at runtime.<br>
+ * Scripts are minified with the same minifier runtime packages use, a script bundle that can't be minified is left
+ * out of the manifest so that it is still minified at runtime. Styles are concatenated, as at runtime.<br>
+ * Usage: <code>BundleBuilder &lt;pluginDir&gt; [&lt;sourceDir&gt; ...]</code>, where the plugin folder holds the
+ * resources*.properties files and the source folders any included files not in it.
+ */
+public class BundleBuilder {
+
+  private static final Log logger = LogFactory.getLog( BundleBuilder.class );
+
+  // relative to the plugin folder
+  static final String BUNDLE_DIR = "js-legacy/bundles/";
+  private static final String ENCODING = "UTF-8";
+
+  private static final Pattern CSS_URL = Pattern.compile( "url\\(\\s*(['\"]?)([^'\")]+)\\1\\s*\\)" );
+
+  private final File pluginDir;
+  private final List<File> sourceDirs;
+
+  public BundleBuilder( File pluginDir, List<File> sourceDirs ) {
+    this.pluginDir = pluginDir;
+    this.sourceDirs = sourceDirs;
+  }
+
+  public static void main( String[] args ) throws IOException {
+    if ( args.length < 1 ) {
+      throw new IllegalArgumentException( "Usage: BundleBuilder <pluginDir> [<sourceDir> ...]" );
+    }
+    List<File> sourceDirs = new ArrayList<File>();
+    for ( int i = 1; i < args.length; i++ ) {
+      sourceDirs.add( new File( args[ i ] ) );
+    }
+    new BundleBuilder( new File( args[ 0 ] ), sourceDirs ).build();
+  }
+
+  /**
+   * Writes the bundles and their manifest to the plugin folder, replacing any previous ones.
+   *
+   * @return the manifest
+   */
+  public Properties build() throws IOException {
+    File bundleDir = new File( pluginDir, BUNDLE_DIR );
+    if ( bundleDir.exists() ) {
+      FileUtils.cleanDirectory( bundleDir );
+    } else if ( !bundleDir.mkdirs() ) {
+      throw new IOException( "Unable to create " + bundleDir );
+    }
+    Properties baseProperties = loadProperties( "resources.properties", new Properties() );
+    Properties manifest = new Properties();
+    for ( String dashboardType : CdfHeadersProvider.getDashboardTypes() ) {
+      Properties dtProperties = loadProperties( CdfHeadersProvider.getDashboardTypeDependencies( dashboardType ),
+          new Properties( baseProperties ) );
+      CdfHeadersProvider.PathSet pathSet = CdfHeadersProvider.getDashboardPathSet( dtProperties, logger );
+      addBundle( manifest, CdfHeadersProvider.getPackageName( dashboardType, CdfHeadersProvider.PKG_SCRIPT ),
+          CdfHeadersProvider.getNonEmpty( pathSet.scripts ), ".js" );
+      addBundle( manifest, CdfHeadersProvider.getPackageName( dashboardType, CdfHeadersProvider.PKG_STYLE ),
+          CdfHeadersProvider.getNonEmpty( pathSet.styles ), ".css" );
+    }
+    OutputStream out = new FileOutputStream( new File( pluginDir, CdfHeadersProvider.BUNDLE_MANIFEST ) );
+    try {
+      manifest.store( out, "Generated at build time, do not edit." );
+    } finally {
+      IOUtils.closeQuietly( out );
+    }
+    return manifest;
+  }
+
+  private void addBundle( Properties manifest, String name, List<String> files, String extension )
+    throws IOException {
+    if ( files.isEmpty() ) {
+      return;
+    }
+    StringBuilder contents = new StringBuilder();
+    for ( String file : files ) {
+      String text = FileUtils.readFileToString( getSourceFile( file ), ENCODING );
+      if ( extension.equals( ".css" ) ) {
+        contents.append( rebaseUrls( text, file ) ).append( '\n' );
+      } else {
+        // guard against files that do not end their last statement
+        contents.append( text ).append( "\n;\n" );
+      }
+    }
+    byte[] bytes = contents.toString().getBytes( ENCODING );
+    if ( extension.equals( ".js" ) ) {
+      try {
+        bytes = minifyScript( bytes );
+      } catch ( Exception e ) {
+        logger.warn( String.format( "Unable to minify %s, it will be packaged at runtime.", name ), e );
+        return;
+      }
+    }
+    String bundle = BUNDLE_DIR + name + "." + hash( bytes ) + extension;
+    File bundleFile = new File( pluginDir, bundle );
+    FileUtils.writeByteArrayToFile( bundleFile, bytes );
+    OutputStream gzip = new GZIPOutputStream( new FileOutputStream( bundleFile.getPath()
+        + PrecompressedBundles.GZIP_SUFFIX ) );
+    try {
+      gzip.write( bytes );
+    } finally {
+      IOUtils.closeQuietly( gzip );
+    }
+    manifest.setProperty( name, bundle );
+    manifest.setProperty( name + CdfHeadersProvider.BUNDLE_FILES_SUFFIX, StringUtils.join( files, ',' ) );
+    logger.info( String.format( "%s: %d files, %d bytes.", bundle, files.size(), bytes.length ) );
+  }
+
+  static byte[] minifyScript( byte[] script ) throws Exception {
+    ByteArrayOutputStream minified = new ByteArrayOutputStream( script.length );
+    new JSMin( new ByteArrayInputStream( script ), minified ).jsmin();
+    return minified.toByteArray();
+  }
+
+  /**
+   * Makes relative urls in a stylesheet relative to the bundle folder.
+   *
+   * @param css stylesheet contents
+   * @param file stylesheet path, relative to the plugin folder
+   */
+  static String rebaseUrls( String css, String file ) {
+    String fileDir = FilenameUtils.getPath( file );
+    String toPluginDir = StringUtils.repeat( "../", StringUtils.countMatches( BUNDLE_DIR, "/" ) );
+    Matcher url = CSS_URL.matcher( css );
+    StringBuffer rebased = new StringBuffer( css.length() );
+    while ( url.find() ) {
+      String path = url.group( 2 ).trim();
+      if ( isRelative( path ) ) {
+        String normalized = FilenameUtils.normalize( fileDir + path );
+        if ( normalized != null ) {
+          path = toPluginDir + FilenameUtils.separatorsToUnix( normalized );
+        }
+      }
+      url.appendReplacement( rebased, Matcher.quoteReplacement( "url(" + url.group( 1 ) + path + url.group( 1 )
+          + ")" ) );
+    }
+    url.appendTail( rebased );
+    return rebased.toString();
+  }
+
+  private static boolean isRelative( String path ) {
+    return !( path.startsWith( "/" ) || path.startsWith( "#" ) || path.startsWith( "data:" )
+        || path.contains( "://" ) );
+  }
+
+  private File getSourceFile( String path ) throws IOException {
+    List<File> dirs = new ArrayList<File>( sourceDirs.size() + 1 );
+    dirs.add( pluginDir );
+    dirs.addAll( sourceDirs );
+    for ( File dir : dirs ) {
+      File file = new File( dir, path );
+      if ( file.isFile() ) {
+        return file;
+      }
+    }
+    throw new IOException( String.format( "%s not found in %s", path, Arrays.toString( dirs.toArray() ) ) );
+  }
+
+  private Properties loadProperties( String fileName, Properties properties ) throws IOException {
+    File file = new File( pluginDir, fileName );
+    if ( file.isFile() ) {
+      InputStream in = new FileInputStream( file );
+      try {
+        properties.load( in );
+      } finally {
+        IOUtils.closeQuietly( in );
+      }
+    }
+    return properties;
+  }
+
+  private static String hash( byte[] bytes ) {
+    try {
+      return StaticDependenciesPackage.toHex( MessageDigest.getInstance( "MD5" ).digest( bytes ) );
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+}
@@ -13,14 +13,35 @@
 
 package org.pentaho.cdf.packager;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
@@ -29,6 +50,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.cdf.CdfConstants;
 import org.pentaho.cdf.environment.packager.ICdfHeadersProvider;
+import org.pentaho.cdf.utils.BoundedCache;
 
 import pt.webdetails.cpf.PluginEnvironment;
 import pt.webdetails.cpf.context.api.IUrlProvider;
@@ -40,7 +62,9 @@ import pt.webdetails.cpf.packager.dependencies.FileDependency;
 import pt.webdetails.cpf.packager.origin.PathOrigin;
 import pt.webdetails.cpf.packager.origin.StaticSystemOrigin;
 import pt.webdetails.cpf.repository.api.IContentAccessFactory;
+import pt.webdetails.cpf.repository.api.IRWAccess;
 import pt.webdetails.cpf.repository.api.IReadAccess;
+import pt.webdetails.cpf.utils.CharsetHelper;
 
 /**
  * Provides includes needed for CDF Dashboards.
@@ -52,6 +76,9 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
   // base properties, can be overridden by 'resources.<dashboardType>.properties'
   private static final String BASE_DEPENDENCIES = "resources.properties";
   private static final String CDF_DASHBOARD_DEPENDENCIES = "resources.cdf.dashboards.properties";
+  // bundles concatenated at build time, see BundleBuilder
+  static final String BUNDLE_MANIFEST = "bundles.manifest.properties";
+  static final String BUNDLE_FILES_SUFFIX = ".files";
 
   private static final String SUFFIX_SCRIPT = ".script";
   private static final String SUFFIX_STYLE = ".link";
@@ -61,10 +88,16 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
   private static final String SUFFIX_IE8_SCRIPT = ".ie8script";
   private static final String SUFFIX_IE8_SCRIPT_AFTER_STYLE = ".ie8scriptAfterLink";
   private static final String SUFFIX_IE8_SCRIPT_BEFORE_SCRIPT = ".ie8scriptBeforeScript";
+  // regex for the start of the type names of a component, defaults to the component name
+  private static final String SUFFIX_MATCH = ".match";
   // these are always loaded first
   private static final String BASE_SCRIPTS_PROPERTY = "script";
   private static final String BASE_STYLES_PROPERTY = "link";
   private static final String BASE_STYLEMAP_PROPERTY = "map";
+  // component specific includes, in the order they are added to the headers
+  private static final String[] COMPONENT_SCRIPT_SUFFIXES = { SUFFIX_IE8_SCRIPT_BEFORE_SCRIPT, SUFFIX_SCRIPT,
+                                                              SUFFIX_IE8_SCRIPT, SUFFIX_IE8_SCRIPT_AFTER_STYLE };
+  private static final String[] COMPONENT_STYLE_SUFFIXES = { SUFFIX_STYLE, SUFFIX_IE8_STYLE };
 
   private static final List<String> acceptedDashboardTypes = new ArrayList<String>( 3 );
   static {
@@ -74,34 +107,202 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
     acceptedDashboardTypes.add( CdfConstants.CLEAN );
   }
   private static final String DEFAULT_DASHBOARD_TYPE = "blueprint";
+  // includes that can be preloaded
+  private static final Pattern IE8_CONDITIONAL = Pattern.compile( "<!--\\[if [^\\]]*\\]>.*?<!\\[endif\\]-->",
+      Pattern.DOTALL );
+  private static final Pattern INCLUDE_TAG = Pattern.compile( "<(script|link)\\b([^>]*)>", Pattern.CASE_INSENSITIVE );
+  private static final Pattern SCRIPT_SRC = Pattern.compile( "\\ssrc=\"([^\"]+)\"" );
+  private static final Pattern STYLE_HREF = Pattern.compile( "\\shref=\"([^\"]+)\"" );
+  private static final Pattern STYLESHEET = Pattern.compile( "rel=\"stylesheet\"", Pattern.CASE_INSENSITIVE );
+  // include url and its query string, replaced by the content hash of minified bundles
+  private static final Pattern INCLUDE_VERSION = Pattern.compile( "((?:src|href)=\"[^\"?]+)(?:\\?[^\"]*)?\"" );
+  // upper bound for distinct header blocks kept in memory
+  private static final int MAX_CACHED_HEADERS = 512;
+  // the type of each dashboard component, captured without consuming it so that no declaration is skipped
+  private static final Pattern COMPONENT_TYPE = Pattern.compile( "type:\\s*[\"'](?=([^\"']*)[\"'])" );
+  // upper bound for dashboards whose component types are kept in memory
+  private static final int MAX_CACHED_COMPONENT_TYPES = 512;
+
+  // package base name for the component specific includes
+  private static final String EXTRA_INCLUDES = "cdf-dashboard";
+  private static final String PKG_NAME = "cdf-%s-%s-includes";
+  static final String PKG_SCRIPT = "script";
+  static final String PKG_STYLE = "style";
 
   // base properties cache
   private Properties baseProperties;
   private Properties extraProperties;
-  // for cdf dashboards
-  private List<? extends DependenciesPackage> extraIncludes;
+  // component type -> component specific files, per package type
+  private Map<PackageType, Map<String, List<String>>> componentIncludes;
+  // component type -> type values that select it, in include order
+  private Map<String, Pattern> componentMatchers;
+  // package name -> bundle and files it was built from
+  private Properties bundleManifest;
+  // build time bundles listed in the manifest
+  private Set<String> manifestBundles;
+  // package name -> up to date build time bundle, used instead of packaging at runtime
+  private final ConcurrentMap<String, String> prebuiltBundles = new ConcurrentHashMap<String, String>();
+  // package name -> content hash of its runtime minified bundle, when versioning by content
+  private final ConcurrentMap<String, String> minifiedVersions = new ConcurrentHashMap<String, String>();
+
+  // dashboard type or EXTRA_INCLUDES -> its packages, each built once on first use
+  private final ConcurrentMap<String, Future<List<StaticDependenciesPackage>>> packages =
+      new ConcurrentHashMap<String, Future<List<StaticDependenciesPackage>>>();
 
-  private Map<String, List<? extends DependenciesPackage>> dashboardIncludes =
-      new HashMap<String, List<? extends DependenciesPackage>>();
+  // finished header blocks, keyed by the getHeaders arguments
+  private final BoundedCache<String, CachedHeaders> headersCache =
+      new BoundedCache<String, CachedHeaders>( "Headers", MAX_CACHED_HEADERS );
+  // preload links, keyed by dashboard type, debug mode and absolute root
+  private final BoundedCache<String, List<String>> preloadLinksCache =
+      new BoundedCache<String, List<String>>( "Preload links", MAX_CACHED_HEADERS );
+  // components used by a dashboard, keyed by its path and version or by a digest of its content
+  private final BoundedCache<String, List<String>> componentTypesCache =
+      new BoundedCache<String, List<String>>( "Component types", MAX_CACHED_COMPONENT_TYPES );
 
+  // version files by content hash instead of modification time
+  private final boolean contentVersioning;
+
+  /**
+   * Builds the packages of every dashboard type up front.
+   */
   public CdfHeadersProvider() {
+    this( false, acceptedDashboardTypes );
+  }
+
+  /**
+   * @param contentVersioning if dependency urls should be versioned by a hash of the file contents
+   * @param warmUpTypes dashboard types whose packages are built now, others are built on first use
+   */
+  public CdfHeadersProvider( boolean contentVersioning, List<String> warmUpTypes ) {
+    this.contentVersioning = contentVersioning;
     IReadAccess reader = getContentAccess().getPluginSystemReader( BASE_DIR );
     // base includes
     baseProperties = new Properties();
     loadProperties( reader, BASE_DEPENDENCIES, baseProperties );
     // extra includes
     extraProperties = loadProperties( reader, CDF_DASHBOARD_DEPENDENCIES, new Properties() );
-    PathSet pathSet = new PathSet();
-    addCustomDependencies( pathSet, extraProperties );
-    extraIncludes = createDependenciesPackages( "cdf-dashboard", pathSet );
+    componentIncludes = buildComponentIndex( extraProperties );
+    componentMatchers = buildComponentMatchers( extraProperties, componentIncludes );
+    // build time bundles
+    bundleManifest = new Properties();
+    if ( reader.fileExists( BUNDLE_MANIFEST ) ) {
+      loadProperties( reader, BUNDLE_MANIFEST, bundleManifest );
+    } else {
+      getLog().info( "No prebuilt bundles found, dependencies will be packaged at runtime." );
+    }
+    Set<String> bundles = new HashSet<String>();
+    for ( String name : bundleManifest.stringPropertyNames() ) {
+      if ( !name.endsWith( BUNDLE_FILES_SUFFIX ) ) {
+        bundles.add( bundleManifest.getProperty( name ).trim() );
+      }
+    }
+    manifestBundles = Collections.unmodifiableSet( bundles );
     // dashboard types
-    for ( String dashboardType : acceptedDashboardTypes ) {
+    List<String> dashboardTypes = new ArrayList<String>();
+    if ( warmUpTypes != null ) {
+      for ( String dashboardType : warmUpTypes ) {
+        if ( isAcceptedDashboardType( dashboardType ) && !dashboardTypes.contains( dashboardType ) ) {
+          dashboardTypes.add( dashboardType );
+        } else {
+          getLog().warn( "Ignoring warm-up of dashboard type '" + dashboardType + "'." );
+        }
+      }
+    }
+    if ( !dashboardTypes.isEmpty() ) {
+      warmUp( dashboardTypes );
+    }
+  }
+
+  /**
+   * Builds the packages for each dashboard type in parallel, also generating their minified bundles.
+   */
+  private void warmUp( List<String> dashboardTypes ) {
+    long start = System.currentTimeMillis();
+    ForkJoinPool pool = new ForkJoinPool( Math.max( 1, Math.min( dashboardTypes.size(),
+        Runtime.getRuntime().availableProcessors() ) ), new PluginWorkerThreadFactory(), null, false );
+    try {
+      List<Future<?>> builds = new ArrayList<Future<?>>( dashboardTypes.size() );
+      for ( final String dashboardType : dashboardTypes ) {
+        builds.add( pool.submit( new Runnable() {
+          @Override
+          public void run() {
+            getDependenciesPackages( dashboardType );
+          }
+        } ) );
+      }
+      for ( Future<?> build : builds ) {
+        try {
+          build.get();
+        } catch ( ExecutionException e ) {
+          logError( "Error warming up dependencies.", e.getCause() );
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          logError( "Interrupted while warming up dependencies.", e );
+          break;
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+    getLog().info( String.format( "Dependencies for %s loaded in %dms.", StringUtils.join( dashboardTypes, ", " ),
+        System.currentTimeMillis() - start ) );
+  }
+
+  private List<StaticDependenciesPackage> buildDashboardPackages( String dashboardType ) {
+    long start = System.currentTimeMillis();
+    List<StaticDependenciesPackage> packages = createDependenciesPackages( dashboardType );
+    long built = System.currentTimeMillis();
+    for ( DependenciesPackage pkg : packages ) {
       try {
-        dashboardIncludes.put( dashboardType, createDependenciesPackages( dashboardType ) );
+        prepareMinified( pkg );
       } catch ( Exception e ) {
-        logError( "Unable to load headers for " + dashboardType, e );
+        logError( "Unable to generate minified bundle for '" + pkg.getName() + "'.", e );
       }
     }
+    getLog().info( String.format( "Dependencies for %s: packages built in %dms, minified in %dms.", dashboardType,
+        built - start, System.currentTimeMillis() - built ) );
+    return packages;
+  }
+
+  private List<StaticDependenciesPackage> buildExtraPackages() {
+    PathSet pathSet = new PathSet();
+    addCustomDependencies( pathSet, extraProperties, getLog() );
+    return createDependenciesPackages( EXTRA_INCLUDES, pathSet );
+  }
+
+  /**
+   * Generates the minified bundle of a package, so that the first non-debug request does not have to, along with the
+   * gzip compressed siblings of the files it includes. When versioning by content the bundle is hashed too, so that
+   * its url only changes with its contents.
+   */
+  protected void prepareMinified( DependenciesPackage pkg ) {
+    IReadAccess reader = getContentAccess().getPluginSystemReader( BASE_DIR );
+    IRWAccess writer = getContentAccess().getPluginSystemWriter( BASE_DIR );
+    String bundle = prebuiltBundles.get( pkg.getName() );
+    if ( bundle != null ) {
+      PrecompressedBundles.compress( reader, writer, bundle );
+      return;
+    }
+    String includes = pkg.getDependencies( true );
+    List<String> paths = PrecompressedBundles.getIncludedPaths( includes, getUrlProvider().getResourcesBasePath() );
+    for ( String path : paths ) {
+      PrecompressedBundles.compress( reader, writer, path );
+    }
+    if ( contentVersioning && paths.size() == 1 && reader.fileExists( paths.get( 0 ) ) ) {
+      minifiedVersions.put( pkg.getName(), StaticDependenciesPackage.getContentVersion( reader, paths.get( 0 ) ) );
+    }
+  }
+
+  @Override
+  public boolean isPrebuiltBundle( String path ) {
+    return manifestBundles.contains( path );
+  }
+
+  /**
+   * @return the includes, with the query string of their urls replaced by the given version
+   */
+  static String withVersion( String includes, String version ) {
+    return INCLUDE_VERSION.matcher( includes ).replaceAll( "$1?v=" + version + "\"" );
   }
 
   /**
@@ -135,74 +336,278 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
    */
   @Override
   public String getHeaders( String dashboardType, boolean isDebugMode, String absRoot, List<String> componentTypes ) {
+    return getCachedHeaders( dashboardType, isDebugMode, absRoot, componentTypes ).getText();
+  }
+
+  /**
+   * Same as {@link #getHeaders(String, boolean, String, List)}, already encoded with the system charset.
+   * The returned array is shared and must not be modified.
+   */
+  public byte[] getEncodedHeaders( String dashboardType, boolean isDebugMode, String absRoot,
+                                   List<String> componentTypes ) {
+    return getCachedHeaders( dashboardType, isDebugMode, absRoot, componentTypes ).getBytes();
+  }
+
+  /**
+   * Writes the cached, already encoded, header block without copying it.
+   */
+  @Override
+  public void writeHeaders( OutputStream out, String dashboardType, boolean isDebugMode, String absRoot,
+                            List<String> componentTypes ) throws IOException {
+    out.write( getEncodedHeaders( dashboardType, isDebugMode, absRoot, componentTypes ) );
+  }
+
+  /**
+   * Drops all cached header blocks. Must be called whenever the dependency packages are rebuilt.
+   */
+  public void clearCache() {
+    headersCache.clear();
+    preloadLinksCache.clear();
+    componentTypesCache.clear();
+  }
+
+  /**
+   * Preloads the scripts and styles of the dashboard type packages, leaving out conditional IE8 includes and
+   * component specific ones. Urls are the same the page headers for that absolute root include.
+   */
+  @Override
+  public List<String> getPreloadLinks( String dashboardType, boolean isDebugMode, String absRoot ) {
+    if ( !isAcceptedDashboardType( dashboardType ) ) {
+      dashboardType = DEFAULT_DASHBOARD_TYPE;
+    }
+    String key = dashboardType + '|' + isDebugMode + '|' + absRoot;
+    List<String> links = preloadLinksCache.get( key );
+    if ( links == null ) {
+      links = Collections.unmodifiableList( getPreloadLinks( getHeaders( dashboardType, isDebugMode, absRoot,
+          null ) ) );
+      preloadLinksCache.putIfAbsent( key, links );
+    }
+    return links;
+  }
+
+  static List<String> getPreloadLinks( String headers ) {
+    List<String> links = new ArrayList<String>();
+    Matcher include = INCLUDE_TAG.matcher( IE8_CONDITIONAL.matcher( headers ).replaceAll( "" ) );
+    while ( include.find() ) {
+      boolean script = include.group( 1 ).equalsIgnoreCase( "script" );
+      String attributes = include.group( 2 );
+      if ( !script && !STYLESHEET.matcher( attributes ).find() ) {
+        continue;
+      }
+      Matcher url = ( script ? SCRIPT_SRC : STYLE_HREF ).matcher( attributes );
+      if ( url.find() ) {
+        links.add( String.format( "<%s>; rel=preload; as=%s", url.group( 1 ), script ? "script" : "style" ) );
+      }
+    }
+    return links;
+  }
+
+  private CachedHeaders getCachedHeaders( String dashboardType, boolean isDebugMode, String absRoot,
+                                          List<String> componentTypes ) {
     if ( !isAcceptedDashboardType( dashboardType ) ) {
       getLog().error( dashboardType + " is not a valid dashboard type. Defaulting to " + DEFAULT_DASHBOARD_TYPE );
       dashboardType = DEFAULT_DASHBOARD_TYPE;
     }
-    StringBuilder deps = new StringBuilder();
-    for ( DependenciesPackage pkg : getDependenciesPackages( dashboardType ) ) {
+    String key = getCacheKey( dashboardType, isDebugMode, absRoot, componentTypes );
+    CachedHeaders headers = headersCache.get( key );
+    if ( headers == null ) {
+      HeadersBuilder builder = new HeadersBuilder();
+      buildHeaders( builder, dashboardType, isDebugMode, absRoot, componentTypes );
+      headers = new CachedHeaders( builder.deps.toString() );
+      // incomplete output is never cached so that the next request retries the failed packages
+      if ( builder.complete ) {
+        CachedHeaders previous = headersCache.putIfAbsent( key, headers );
+        if ( previous != null ) {
+          headers = previous;
+        }
+      }
+    }
+    return headers;
+  }
+
+  private static String getCacheKey( String dashboardType, boolean isDebugMode, String absRoot,
+                                     List<String> componentTypes ) {
+    StringBuilder key = new StringBuilder( dashboardType );
+    key.append( '|' ).append( isDebugMode );
+    key.append( '|' ).append( absRoot == null ? "" : absRoot );
+    key.append( '|' );
+    if ( componentTypes != null ) {
+      // component order determines include order, so it is part of the key
+      key.append( StringUtils.join( componentTypes, ',' ) );
+    }
+    return key.toString();
+  }
+
+  private void buildHeaders( HeadersBuilder builder, String dashboardType, boolean isDebugMode, String absRoot,
+                             List<String> componentTypes ) {
+    StringBuilder deps = builder.deps;
+    List<? extends DependenciesPackage> dashboardPackages = getDependenciesPackages( dashboardType );
+    if ( dashboardPackages == null ) {
+      builder.complete = false;
+      dashboardPackages = Collections.emptyList();
+    }
+    for ( DependenciesPackage pkg : dashboardPackages ) {
       deps.append( String.format( "<!-- %s -->", pkg.getName() ) );
       try {
         appendDependencies( deps, pkg, !isDebugMode, absRoot );
       } catch ( Exception e ) {
+        builder.complete = false;
         logError( "Error with dependencies package '" + pkg.getName() + "'.", e );
       }
     }
     if ( componentTypes != null && !componentTypes.isEmpty() ) {
-      for ( DependenciesPackage pkg : extraIncludes ) {
+      List<? extends DependenciesPackage> extraPackages = getExtraIncludes();
+      if ( extraPackages == null ) {
+        builder.complete = false;
+        extraPackages = Collections.emptyList();
+      }
+      for ( DependenciesPackage pkg : extraPackages ) {
         deps.append( String.format( "<!-- %s -->", pkg.getName() ) );
-        ArrayList<String> filePaths = new ArrayList<String>( componentTypes.size() );
-        String tmp;
-        // build new List with dependencies to be included
-        switch ( pkg.getType() ) {
-          case JS:
-            for ( String name : componentTypes ) {
-              tmp = name.concat( SUFFIX_IE8_SCRIPT_BEFORE_SCRIPT );
-              if (  extraProperties.containsKey( tmp ) ) {
-                String[] value = extraProperties.getProperty( tmp ).split( "," );
-                filePaths.addAll( Arrays.asList( value ) );
-              }
-              tmp = name.concat( SUFFIX_SCRIPT );
-              if (  extraProperties.containsKey( tmp ) ) {
-                String[] value = extraProperties.getProperty( tmp ).split( "," );
-                filePaths.addAll( Arrays.asList( value ) );
-              }
-              tmp = name.concat( SUFFIX_IE8_SCRIPT );
-              if (  extraProperties.containsKey( tmp ) ) {
-                String[] value = extraProperties.getProperty( tmp ).split( "," );
-                filePaths.addAll( Arrays.asList( value ) );
-              }
-              tmp = name.concat( SUFFIX_IE8_SCRIPT_AFTER_STYLE );
-              if (  extraProperties.containsKey( tmp ) ) {
-                String[] value = extraProperties.getProperty( tmp ).split( "," );
-                filePaths.addAll( Arrays.asList( value ) );
-              }
-            }
-            break;
-          case CSS:
-            for ( String name : componentTypes ) {
-              tmp = name.concat( SUFFIX_STYLE );
-              if (  extraProperties.containsKey( tmp ) ) {
-                String[] value = extraProperties.getProperty( tmp ).split( "," );
-                filePaths.addAll( Arrays.asList( value ) );
-              }
-              tmp = name.concat( SUFFIX_IE8_STYLE );
-              if (  extraProperties.containsKey( tmp ) ) {
-                String[] value = extraProperties.getProperty( tmp ).split( "," );
-                filePaths.addAll( Arrays.asList( value ) );
-              }
-            }
-            break;
-          default:
-            break;
-        }
+        ArrayList<String> filePaths = getComponentFiles( pkg.getType(), componentTypes );
         if ( !filePaths.isEmpty() ) {
           // map component cannot be minified for now because of OpenLayers.js
           appendDependencies( deps, pkg, false, absRoot, filePaths );
         }
       }
     }
-    return deps.toString();
+  }
+
+  /**
+   * @param type package type
+   * @param componentTypes components used in the dashboard
+   * @return files from the cdf dashboard includes needed by the given components, in include order
+   */
+  ArrayList<String> getComponentFiles( PackageType type, List<String> componentTypes ) {
+    ArrayList<String> filePaths = new ArrayList<String>();
+    Map<String, List<String>> index = componentIncludes.get( type );
+    if ( index != null ) {
+      for ( String name : componentTypes ) {
+        List<String> files = index.get( name );
+        if ( files != null ) {
+          filePaths.addAll( files );
+        }
+      }
+    }
+    return filePaths;
+  }
+
+  private static Map<PackageType, Map<String, List<String>>> buildComponentIndex( Properties properties ) {
+    Set<String> components = new HashSet<String>();
+    for ( String name : properties.stringPropertyNames() ) {
+      int suffixIndex = name.lastIndexOf( '.' );
+      if ( suffixIndex > 0 ) {
+        components.add( name.substring( 0, suffixIndex ) );
+      }
+    }
+    Map<PackageType, Map<String, List<String>>> index = new EnumMap<PackageType, Map<String, List<String>>>(
+        PackageType.class );
+    index.put( PackageType.JS, indexComponents( properties, components, COMPONENT_SCRIPT_SUFFIXES ) );
+    index.put( PackageType.CSS, indexComponents( properties, components, COMPONENT_STYLE_SUFFIXES ) );
+    return Collections.unmodifiableMap( index );
+  }
+
+  private static Map<String, List<String>> indexComponents( Properties properties, Set<String> components,
+                                                            String[] suffixes ) {
+    Map<String, List<String>> index = new HashMap<String, List<String>>();
+    for ( String component : components ) {
+      List<String> files = new ArrayList<String>();
+      for ( String suffix : suffixes ) {
+        String value = properties.getProperty( component.concat( suffix ) );
+        if ( value != null ) {
+          files.addAll( Arrays.asList( value.split( "," ) ) );
+        }
+      }
+      if ( !files.isEmpty() ) {
+        index.put( component, Collections.unmodifiableList( files ) );
+      }
+    }
+    return Collections.unmodifiableMap( index );
+  }
+
+  /**
+   * Finds the components declared in the cdf dashboard includes that are used in a dashboard, scanning it once for
+   * component type declarations.
+   */
+  @Override
+  public List<String> getComponentTypes( String dashboardContent ) {
+    return getComponentTypes( dashboardContent, null );
+  }
+
+  /**
+   * Same as {@link #getComponentTypes(String)}, only hashing the content of dashboards whose version is unknown.
+   */
+  @Override
+  public List<String> getComponentTypes( String dashboardContent, String dashboardVersion ) {
+    String key = dashboardVersion != null ? dashboardVersion : digest( dashboardContent );
+    List<String> componentTypes = componentTypesCache.get( key );
+    if ( componentTypes == null ) {
+      componentTypes = Collections.unmodifiableList( findComponentTypes( dashboardContent ) );
+      componentTypesCache.put( key, componentTypes );
+    }
+    return new ArrayList<String>( componentTypes );
+  }
+
+  private List<String> findComponentTypes( String dashboardContent ) {
+    Set<String> typeValues = new HashSet<String>();
+    Matcher type = COMPONENT_TYPE.matcher( dashboardContent );
+    while ( type.find() ) {
+      typeValues.add( type.group( 1 ) );
+    }
+    List<String> componentTypes = new ArrayList<String>();
+    for ( Map.Entry<String, Pattern> component : componentMatchers.entrySet() ) {
+      Matcher typeValue = component.getValue().matcher( "" );
+      for ( String value : typeValues ) {
+        if ( typeValue.reset( value ).matches() ) {
+          componentTypes.add( component.getKey() );
+          break;
+        }
+      }
+    }
+    return componentTypes;
+  }
+
+  private static String digest( String content ) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance( "MD5" );
+      return StaticDependenciesPackage.toHex( digest.digest( content.getBytes( CharsetHelper.getEncoding() ) ) );
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IllegalStateException( e );
+    } catch ( UnsupportedEncodingException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  /**
+   * Components from {@link CdfConstants#DASHBOARD_COMPONENT_TYPES} keep their order and type regex, any others
+   * follow by name.
+   */
+  private Map<String, Pattern> buildComponentMatchers( Properties properties,
+                                                       Map<PackageType, Map<String, List<String>>> index ) {
+    Set<String> components = new TreeSet<String>();
+    for ( Map<String, List<String>> files : index.values() ) {
+      components.addAll( files.keySet() );
+    }
+    Map<String, Pattern> matchers = new LinkedHashMap<String, Pattern>();
+    for ( String[] componentType : CdfConstants.DASHBOARD_COMPONENT_TYPES ) {
+      if ( components.remove( componentType[ 1 ] ) ) {
+        addComponentMatcher( matchers, componentType[ 1 ],
+            properties.getProperty( componentType[ 1 ] + SUFFIX_MATCH, componentType[ 0 ] ) );
+      }
+    }
+    for ( String component : components ) {
+      addComponentMatcher( matchers, component,
+          properties.getProperty( component + SUFFIX_MATCH, Pattern.quote( component ) ) );
+    }
+    return Collections.unmodifiableMap( matchers );
+  }
+
+  private void addComponentMatcher( Map<String, Pattern> matchers, String component, String typeRegex ) {
+    try {
+      // same as CdfConstants.COMPONENT_TYPE_PATTERN, on the type value alone
+      matchers.put( component, Pattern.compile( "(?i)(?:" + typeRegex.trim() + ")[a-z]*" ) );
+    } catch ( PatternSyntaxException e ) {
+      logError( String.format( "Invalid %s%s regex '%s'.", component, SUFFIX_MATCH, typeRegex ), e );
+    }
   }
 
   private static class CdfDependencyInclusionFilter implements DependenciesPackage.IDependencyInclusionFilter {
@@ -236,15 +641,60 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
   }
 
   protected void appendDependencies( StringBuilder deps, DependenciesPackage pkg, boolean minify, String absRoot ) {
-    if ( absRoot != null ) {
-      StringFilter filter = new AbsolutizingStringFilter( absRoot, pkg.getDefaultFilter() );
-      deps.append( pkg.getDependencies( filter, minify ) );
+    String bundle = minify ? prebuiltBundles.get( pkg.getName() ) : null;
+    if ( bundle != null ) {
+      String basePath = getUrlProvider().getResourcesBasePath();
+      String url = ( basePath.endsWith( "/" ) ? basePath : basePath + "/" ) + bundle;
+      StringFilter filter = pkg.getDefaultFilter();
+      deps.append( absRoot != null ? filter.filter( url, absRoot ) : filter.filter( url ) );
     } else {
-      deps.append( pkg.getDependencies( minify ) );
+      String includes;
+      if ( absRoot != null ) {
+        StringFilter filter = new AbsolutizingStringFilter( absRoot, pkg.getDefaultFilter() );
+        includes = pkg.getDependencies( filter, minify );
+      } else {
+        includes = pkg.getDependencies( minify );
+      }
+      String version = minify ? minifiedVersions.get( pkg.getName() ) : null;
+      deps.append( version != null ? withVersion( includes, version ) : includes );
+    }
+  }
+
+  /**
+   * @return names and modification times of the files dependencies are read from, different whenever one of them is
+   * added, deleted or replaced, even by an older one
+   */
+  public String getDefinitionsSignature() {
+    IReadAccess reader = getContentAccess().getPluginSystemReader( BASE_DIR );
+    StringBuilder signature = new StringBuilder();
+    for ( String filePath : getDefinitionFiles() ) {
+      if ( reader.fileExists( filePath ) ) {
+        signature.append( filePath ).append( ':' ).append( reader.getLastModified( filePath ) ).append( ',' );
+      }
+    }
+    return signature.toString();
+  }
+
+  private static List<String> getDefinitionFiles() {
+    List<String> files = new ArrayList<String>( acceptedDashboardTypes.size() + 3 );
+    files.add( BASE_DEPENDENCIES );
+    files.add( CDF_DASHBOARD_DEPENDENCIES );
+    files.add( BUNDLE_MANIFEST );
+    for ( String dashboardType : acceptedDashboardTypes ) {
+      files.add( getDashboardTypeDependencies( dashboardType ) );
     }
+    return files;
+  }
+
+  static List<String> getDashboardTypes() {
+    return Collections.unmodifiableList( acceptedDashboardTypes );
   }
 
-  private static List<String> getProperty( Properties properties, String propertyName ) {
+  static String getDashboardTypeDependencies( String dashboardType ) {
+    return String.format( "resources.%s.properties", dashboardType );
+  }
+
+  static List<String> getProperty( Properties properties, String propertyName ) {
     return Arrays.asList( properties.getProperty( propertyName, "" ).split( "," ) );
   }
 
@@ -265,43 +715,99 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
     return properties;
   }
 
-  private Iterable<? extends DependenciesPackage> getDependenciesPackages( String dashboardType ) {
-    if ( !dashboardIncludes.containsKey( dashboardType ) ) {
-      getLog().error( "Dependencies for type " + dashboardType + " were not loaded correctly." );
-      return Collections.emptyList();
+  /**
+   * @return the packages of the dashboard type, null if they could not be built
+   */
+  private List<? extends DependenciesPackage> getDependenciesPackages( final String dashboardType ) {
+    try {
+      return getPackages( dashboardType, new Callable<List<StaticDependenciesPackage>>() {
+        @Override
+        public List<StaticDependenciesPackage> call() {
+          return buildDashboardPackages( dashboardType );
+        }
+      } );
+    } catch ( Exception e ) {
+      logError( "Dependencies for type " + dashboardType + " were not loaded correctly.", e );
+      return null;
+    }
+  }
+
+  /**
+   * @return the component specific packages, null if they could not be built
+   */
+  private List<? extends DependenciesPackage> getExtraIncludes() {
+    try {
+      return getPackages( EXTRA_INCLUDES, new Callable<List<StaticDependenciesPackage>>() {
+        @Override
+        public List<StaticDependenciesPackage> call() {
+          return buildExtraPackages();
+        }
+      } );
+    } catch ( Exception e ) {
+      logError( "Unable to load component specific headers.", e );
+      return null;
+    }
+  }
+
+  /**
+   * Gets packages, building them on first use. Concurrent first callers wait for the same build, a failed build is
+   * dropped so that the next caller tries again.
+   */
+  private List<StaticDependenciesPackage> getPackages( String key, Callable<List<StaticDependenciesPackage>> build )
+    throws Exception {
+    Future<List<StaticDependenciesPackage>> result = packages.get( key );
+    if ( result == null ) {
+      FutureTask<List<StaticDependenciesPackage>> task = new FutureTask<List<StaticDependenciesPackage>>( build );
+      result = packages.putIfAbsent( key, task );
+      if ( result == null ) {
+        result = task;
+        task.run();
+      }
+    }
+    try {
+      return result.get();
+    } catch ( ExecutionException e ) {
+      packages.remove( key, result );
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
     }
-    return dashboardIncludes.get( dashboardType );
   }
 
   private boolean isAcceptedDashboardType( String dashboardType ) {
     return acceptedDashboardTypes.contains( dashboardType );
   }
 
-  private List<StaticDependenciesPackage> createDependenciesPackages( String dashboardType ) {
+  protected List<StaticDependenciesPackage> createDependenciesPackages( String dashboardType ) {
     IReadAccess reader = getContentAccess().getPluginSystemReader( BASE_DIR );
-    String fileName = String.format( "resources.%s.properties", dashboardType );
+    String fileName = getDashboardTypeDependencies( dashboardType );
     Properties dtProperties = new Properties( getBaseProperties() );
     if ( reader.fileExists( fileName ) ) {
       loadProperties( reader, fileName, dtProperties );
     }
-
-    PathSet pathSet = new PathSet();
-    addBaseDependencies( pathSet, dtProperties );
-    addCustomDependencies( pathSet, dtProperties );
-    return createDependenciesPackages( dashboardType, pathSet );
+    return createDependenciesPackages( dashboardType, getDashboardPathSet( dtProperties, getLog() ) );
   }
 
   private Properties getBaseProperties() {
     return baseProperties;
   }
 
-  private void addBaseDependencies( PathSet pathSet, Properties properties ) {
+  /**
+   * @param properties dashboard type properties, with the base properties as defaults
+   * @return files to include for the dashboard type
+   */
+  static PathSet getDashboardPathSet( Properties properties, Log log ) {
+    PathSet pathSet = new PathSet();
+    addBaseDependencies( pathSet, properties );
+    addCustomDependencies( pathSet, properties, log );
+    return pathSet;
+  }
+
+  private static void addBaseDependencies( PathSet pathSet, Properties properties ) {
     pathSet.scripts.addAll( getProperty( properties, BASE_SCRIPTS_PROPERTY ) );
     pathSet.styles.addAll( getProperty( properties, BASE_STYLES_PROPERTY ) );
     pathSet.styleMaps.addAll( getProperty( properties, BASE_STYLEMAP_PROPERTY ) );
   }
 
-  private void addCustomDependencies( PathSet pathSet, Properties properties ) {
+  private static void addCustomDependencies( PathSet pathSet, Properties properties, Log log ) {
     for ( String name : properties.stringPropertyNames() ) {
       if ( name.endsWith( SUFFIX_IE8_SCRIPT_BEFORE_SCRIPT ) ) {
         pathSet.ie8ScriptsBeforeScripts.addAll( getProperty( properties, name ) );
@@ -317,9 +823,10 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
         pathSet.ie8Styles.addAll( getProperty( properties, name ) );
       } else if ( name.endsWith( SUFFIX_IE8_SCRIPT_AFTER_STYLE ) ) {
         pathSet.ie8ScriptsAfterStyles.addAll( getProperty( properties, name ) );
-      } else if ( !name.equals( BASE_SCRIPTS_PROPERTY ) && !name.equals( BASE_STYLES_PROPERTY ) ) {
+      } else if ( !name.equals( BASE_SCRIPTS_PROPERTY ) && !name.equals( BASE_STYLES_PROPERTY )
+          && !name.endsWith( SUFFIX_MATCH ) ) {
         // no default
-        getLog().error(
+        log.error(
             String.format( "Type of include property '%s' not recognized. Property name must end in one of ( '%s' )",
                 name, StringUtils.join( new String[] { SUFFIX_SCRIPT, SUFFIX_STYLE, SUFFIX_IE8_STYLE,
                                                        SUFFIX_IE8_SCRIPT, SUFFIX_IE8_SCRIPT_AFTER_STYLE,
@@ -331,25 +838,24 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
   private List<StaticDependenciesPackage> createDependenciesPackages( String pkgBaseName, PathSet pathSet ) {
     List<StaticDependenciesPackage> dependencies = new ArrayList<StaticDependenciesPackage>();
     PathOrigin origin = getDefaultOrigin();
-    final String PKG_NAME = "cdf-%s-%s-includes";
     if ( !pathSet.ie8ScriptsBeforeScripts.isEmpty() ) {
-      String name = String.format( PKG_NAME, pkgBaseName, "ie8scriptBeforeScript" );
+      String name = getPackageName( pkgBaseName, "ie8scriptBeforeScript" );
       dependencies
           .add( new IE8Dependencies( name, PackageType.JS, getContentAccess(), getUrlProvider(),
-            origin, pathSet.ie8ScriptsBeforeScripts ) );
+            origin, pathSet.ie8ScriptsBeforeScripts, contentVersioning ) );
     }
     if ( !pathSet.scripts.isEmpty() ) {
-      String name = String.format( PKG_NAME, pkgBaseName, "script" );
+      String name = getPackageName( pkgBaseName, PKG_SCRIPT );
       dependencies.add( createDependencyPackage( name, PackageType.JS, origin, pathSet.scripts ) );
     }
     if ( !pathSet.ie8Scripts.isEmpty() ) {
-      String name = String.format( PKG_NAME, pkgBaseName, "ie8script" );
+      String name = getPackageName( pkgBaseName, "ie8script" );
       dependencies
           .add( new IE8Dependencies( name, PackageType.JS, getContentAccess(), getUrlProvider(),
-            origin, pathSet.ie8Scripts ) );
+            origin, pathSet.ie8Scripts, contentVersioning ) );
     }
     if ( !pathSet.styles.isEmpty() ) {
-      String name = String.format( PKG_NAME, pkgBaseName, "style" );
+      String name = getPackageName( pkgBaseName, PKG_STYLE );
       dependencies.add( createDependencyPackage( name, PackageType.CSS, origin, pathSet.styles ) );
     }
     if ( !pathSet.styleMaps.isEmpty() ) {
@@ -360,23 +866,27 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
       }
     }
     if ( !pathSet.ie8Styles.isEmpty() ) {
-      String name = String.format( PKG_NAME, pkgBaseName, "ie8style" );
+      String name = getPackageName( pkgBaseName, "ie8style" );
       dependencies
           .add( new IE8Dependencies( name, PackageType.CSS, getContentAccess(), getUrlProvider(),
-            origin, pathSet.ie8Styles ) );
+            origin, pathSet.ie8Styles, contentVersioning ) );
     }
     if ( !pathSet.ie8ScriptsAfterStyles.isEmpty() ) {
-      String name = String.format( PKG_NAME, pkgBaseName, "ie8scriptAfterLink" );
+      String name = getPackageName( pkgBaseName, "ie8scriptAfterLink" );
       dependencies
           .add( new IE8Dependencies( name, PackageType.JS, getContentAccess(), getUrlProvider(),
-            origin, pathSet.ie8ScriptsAfterStyles ) );
+            origin, pathSet.ie8ScriptsAfterStyles, contentVersioning ) );
     }
     return dependencies;
   }
 
+  static String getPackageName( String pkgBaseName, String includeType ) {
+    return String.format( PKG_NAME, pkgBaseName, includeType );
+  }
+
   private StaticDependenciesPackage createStyleMap( String map ) {
     return new StaticDependenciesPackage( FilenameUtils.getName( map ), PackageType.MAP,
-        getContentAccess(), getUrlProvider(), getDefaultOrigin(), new String[]{map} );
+        getContentAccess(), getUrlProvider(), getDefaultOrigin(), new String[]{map}, contentVersioning );
   }
 
   private PathOrigin getDefaultOrigin() {
@@ -385,8 +895,49 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
 
   private StaticDependenciesPackage createDependencyPackage( String name, PackageType pkgType, PathOrigin origin,
       List<String> fileNames ) {
+    registerPrebuiltBundle( name, fileNames );
     return new StaticDependenciesPackage( name, pkgType, getContentAccess(), getUrlProvider(), origin, fileNames
-        .toArray( new String[fileNames.size()] ) );
+        .toArray( new String[fileNames.size()] ), contentVersioning );
+  }
+
+  /**
+   * Uses the build time bundle of a package if it was built from the same files and none of them changed since.
+   */
+  private void registerPrebuiltBundle( String name, List<String> fileNames ) {
+    String bundle = bundleManifest.getProperty( name );
+    if ( bundle == null ) {
+      return;
+    }
+    List<String> files = getNonEmpty( fileNames );
+    if ( !files.equals( getNonEmpty( getProperty( bundleManifest, name + BUNDLE_FILES_SUFFIX ) ) ) ) {
+      getLog().warn( String.format( "Prebuilt bundle %s does not match the definitions of %s, ignoring it.", bundle,
+          name ) );
+      return;
+    }
+    IReadAccess reader = getContentAccess().getPluginSystemReader( BASE_DIR );
+    if ( !reader.fileExists( bundle ) ) {
+      getLog().warn( String.format( "Prebuilt bundle %s not found.", bundle ) );
+      return;
+    }
+    long bundleModified = reader.getLastModified( bundle );
+    for ( String file : files ) {
+      if ( reader.getLastModified( file ) > bundleModified ) {
+        getLog().info( String.format( "%s changed after %s was built, packaging %s at runtime.", file, bundle,
+            name ) );
+        return;
+      }
+    }
+    prebuiltBundles.put( name, bundle );
+  }
+
+  static List<String> getNonEmpty( List<String> values ) {
+    List<String> nonEmpty = new ArrayList<String>( values.size() );
+    for ( String value : values ) {
+      if ( StringUtils.isNotBlank( value ) ) {
+        nonEmpty.add( value.trim() );
+      }
+    }
+    return nonEmpty;
   }
 
   protected IUrlProvider getUrlProvider() {
@@ -410,7 +961,53 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
     }
   }
 
-  private static class PathSet {
+  /**
+   * Keeps the plugin class loader as context class loader of the pool threads.
+   */
+  private static class PluginWorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+    private final ClassLoader classLoader = CdfHeadersProvider.class.getClassLoader();
+
+    @Override
+    public ForkJoinWorkerThread newThread( ForkJoinPool pool ) {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread( pool );
+      thread.setName( "cdf-headers-" + thread.getPoolIndex() );
+      thread.setContextClassLoader( classLoader );
+      return thread;
+    }
+  }
+
+  private static class HeadersBuilder {
+    public StringBuilder deps = new StringBuilder();
+    public boolean complete = true;
+  }
+
+  private static class CachedHeaders {
+    private final String text;
+    private volatile byte[] bytes;
+
+    public CachedHeaders( String text ) {
+      this.text = text;
+    }
+
+    public String getText() {
+      return text;
+    }
+
+    public byte[] getBytes() {
+      byte[] encoded = bytes;
+      if ( encoded == null ) {
+        try {
+          encoded = text.getBytes( CharsetHelper.getEncoding() );
+        } catch ( UnsupportedEncodingException e ) {
+          throw new IllegalStateException( e );
+        }
+        bytes = encoded;
+      }
+      return encoded;
+    }
+  }
+
+  static class PathSet {
     public List<String> ie8ScriptsBeforeScripts = new ArrayList<String>();
     public List<String> scripts = new ArrayList<String>();
     public List<String> styles = new ArrayList<String>();
@@ -444,8 +1041,9 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
 
   private static class IE8Dependencies extends StaticDependenciesPackage {
     public IE8Dependencies( String name, PackageType type, IContentAccessFactory factory, IUrlProvider urlProvider,
-                                 PathOrigin origin, List<String> fileList ) {
-      super( name, type, factory, urlProvider, origin, fileList.toArray( new String[fileList.size()] ) );
+                                 PathOrigin origin, List<String> fileList, boolean contentVersioning ) {
+      super( name, type, factory, urlProvider, origin, fileList.toArray( new String[fileList.size()] ),
+          contentVersioning );
     }
 
     @Override
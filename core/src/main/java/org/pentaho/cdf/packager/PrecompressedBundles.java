@@ -0,0 +1,109 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.packager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import pt.webdetails.cpf.repository.api.IRWAccess;
+import pt.webdetails.cpf.repository.api.IReadAccess;
+
+/**
+ * Gzip compressed siblings ( &lt;file&gt;.gz ) of packaged bundles, so they can be served without compressing them
+ * on every response.
+ */
+public class PrecompressedBundles {
+
+  private static final Log logger = LogFactory.getLog( PrecompressedBundles.class );
+
+  public static final String GZIP_SUFFIX = ".gz";
+
+  private static final Pattern INCLUDE_URL = Pattern.compile( "(?:src|href)=\"([^\"?]+)[^\"]*\"" );
+
+  private PrecompressedBundles() {
+  }
+
+  /**
+   * @param includes script/style includes of a package
+   * @param resourcesBasePath url prefix of files served from the plugin system folder
+   * @return paths of the included files, relative to the plugin system folder
+   */
+  public static List<String> getIncludedPaths( String includes, String resourcesBasePath ) {
+    List<String> paths = new ArrayList<String>();
+    if ( StringUtils.isEmpty( includes ) || StringUtils.isEmpty( resourcesBasePath ) ) {
+      return paths;
+    }
+    String prefix = resourcesBasePath.endsWith( "/" ) ? resourcesBasePath : resourcesBasePath + "/";
+    Matcher url = INCLUDE_URL.matcher( includes );
+    while ( url.find() ) {
+      String path = url.group( 1 );
+      int prefixIndex = path.indexOf( prefix );
+      if ( prefixIndex >= 0 ) {
+        paths.add( path.substring( prefixIndex + prefix.length() ) );
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * Writes the gzip sibling of a file, unless an up to date one exists.
+   *
+   * @return if an up to date sibling is available
+   */
+  public static boolean compress( IReadAccess reader, IRWAccess writer, String path ) {
+    if ( !reader.fileExists( path ) ) {
+      return false;
+    }
+    if ( getPrecompressed( reader, path ) != null ) {
+      return true;
+    }
+    InputStream contents = null;
+    try {
+      contents = reader.getFileInputStream( path );
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      GZIPOutputStream gzip = new GZIPOutputStream( compressed );
+      IOUtils.copy( contents, gzip );
+      gzip.close();
+      return writer.saveFile( path + GZIP_SUFFIX, new ByteArrayInputStream( compressed.toByteArray() ) );
+    } catch ( IOException e ) {
+      logger.error( "Unable to compress " + path, e );
+      return false;
+    } finally {
+      IOUtils.closeQuietly( contents );
+    }
+  }
+
+  /**
+   * @return path of an up to date gzip sibling of the file, null if there is none
+   */
+  public static String getPrecompressed( IReadAccess reader, String path ) {
+    String compressed = path + GZIP_SUFFIX;
+    if ( reader.fileExists( compressed ) && reader.getLastModified( compressed ) >= reader.getLastModified( path ) ) {
+      return compressed;
+    }
+    return null;
+  }
+}
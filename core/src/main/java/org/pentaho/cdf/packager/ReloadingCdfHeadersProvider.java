@@ -0,0 +1,207 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.packager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.cdf.environment.packager.ICdfHeadersProvider;
+
+/**
+ * {@link ICdfHeadersProvider} that rebuilds its {@link CdfHeadersProvider} when the dependency definition files
+ * ( resources*.properties ) change.<br>
+ * A new provider is fully built in the background before being swapped in, so requests always see a complete one.
+ */
+public class ReloadingCdfHeadersProvider implements ICdfHeadersProvider {
+
+  private static final Log logger = LogFactory.getLog( ReloadingCdfHeadersProvider.class );
+
+  private final AtomicReference<Snapshot> current = new AtomicReference<Snapshot>();
+  private final Object reloadLock = new Object();
+  private ScheduledExecutorService watcher;
+  private volatile long lastReloadDuration;
+  private final boolean contentVersioning;
+  private final List<String> warmUpTypes;
+
+  public ReloadingCdfHeadersProvider() {
+    this( false, CdfHeadersProvider.getDashboardTypes() );
+  }
+
+  /**
+   * @param contentVersioning if dependency urls should be versioned by a hash of the file contents
+   * @param warmUpTypes dashboard types whose packages are built along with each provider, others on first use
+   */
+  public ReloadingCdfHeadersProvider( boolean contentVersioning, List<String> warmUpTypes ) {
+    this.contentVersioning = contentVersioning;
+    this.warmUpTypes = warmUpTypes;
+    reload();
+  }
+
+  /**
+   * Starts polling the dependency definition files for changes.
+   *
+   * @param intervalSeconds seconds between checks, will not watch if not positive
+   */
+  public synchronized void startWatching( long intervalSeconds ) {
+    stopWatching();
+    if ( intervalSeconds <= 0 ) {
+      return;
+    }
+    watcher = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+      @Override
+      public Thread newThread( Runnable runnable ) {
+        Thread thread = new Thread( runnable, "cdf-headers-watcher" );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    watcher.scheduleWithFixedDelay( new Runnable() {
+      @Override
+      public void run() {
+        try {
+          reloadIfModified();
+        } catch ( Exception e ) {
+          logger.error( "Error checking dependency definitions for changes.", e );
+        }
+      }
+    }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS );
+  }
+
+  public synchronized void stopWatching() {
+    if ( watcher != null ) {
+      watcher.shutdownNow();
+      watcher = null;
+    }
+  }
+
+  /**
+   * Rebuilds the provider if any dependency definition file changed since the current one was built.
+   *
+   * @return if a reload took place
+   */
+  public boolean reloadIfModified() {
+    Snapshot snapshot = current.get();
+    if ( snapshot.provider.getDefinitionsSignature().equals( snapshot.definitions ) ) {
+      return false;
+    }
+    reload();
+    return true;
+  }
+
+  /**
+   * Builds a new provider and swaps it in once complete.
+   */
+  public void reload() {
+    synchronized ( reloadLock ) {
+      long start = System.currentTimeMillis();
+      Snapshot previous = current.get();
+      // read before building, so that changes made during the build trigger another reload
+      String definitions = previous != null ? previous.provider.getDefinitionsSignature() : null;
+      CdfHeadersProvider provider = createProvider();
+      if ( previous == null ) {
+        definitions = provider.getDefinitionsSignature();
+      }
+      // never the same as the previous one, even for reloads within the same millisecond
+      long version = previous != null ? Math.max( start, previous.version + 1 ) : start;
+      current.set( new Snapshot( provider, definitions, version ) );
+      lastReloadDuration = System.currentTimeMillis() - start;
+      logger.info( String.format( "CDF dependency packages built in %dms.", lastReloadDuration ) );
+    }
+  }
+
+  /**
+   * @return how long the last rebuild took, in milliseconds
+   */
+  public long getLastReloadDuration() {
+    return lastReloadDuration;
+  }
+
+  @Override
+  public String getHeaders( String dashboardType, boolean isDebugMode, List<String> componentTypes ) {
+    return getProvider().getHeaders( dashboardType, isDebugMode, componentTypes );
+  }
+
+  @Override
+  public String getHeaders( String dashboardType, boolean isDebugMode, String absRoot, List<String> componentTypes ) {
+    return getProvider().getHeaders( dashboardType, isDebugMode, absRoot, componentTypes );
+  }
+
+  public byte[] getEncodedHeaders( String dashboardType, boolean isDebugMode, String absRoot,
+                                   List<String> componentTypes ) {
+    return getProvider().getEncodedHeaders( dashboardType, isDebugMode, absRoot, componentTypes );
+  }
+
+  @Override
+  public void writeHeaders( OutputStream out, String dashboardType, boolean isDebugMode, String absRoot,
+                            List<String> componentTypes ) throws IOException {
+    getProvider().writeHeaders( out, dashboardType, isDebugMode, absRoot, componentTypes );
+  }
+
+  /**
+   * @return when the current provider was built, changes with every reload
+   */
+  @Override
+  public long getVersion() {
+    return current.get().version;
+  }
+
+  @Override
+  public List<String> getComponentTypes( String dashboardContent ) {
+    return getProvider().getComponentTypes( dashboardContent );
+  }
+
+  @Override
+  public List<String> getComponentTypes( String dashboardContent, String dashboardVersion ) {
+    return getProvider().getComponentTypes( dashboardContent, dashboardVersion );
+  }
+
+  @Override
+  public List<String> getPreloadLinks( String dashboardType, boolean isDebugMode, String absRoot ) {
+    return getProvider().getPreloadLinks( dashboardType, isDebugMode, absRoot );
+  }
+
+  @Override
+  public boolean isPrebuiltBundle( String path ) {
+    return getProvider().isPrebuiltBundle( path );
+  }
+
+  protected CdfHeadersProvider getProvider() {
+    return current.get().provider;
+  }
+
+  protected CdfHeadersProvider createProvider() {
+    return new CdfHeadersProvider( contentVersioning, warmUpTypes );
+  }
+
+  private static class Snapshot {
+    private final CdfHeadersProvider provider;
+    // signature of the dependency definition files the provider was built from
+    private final String definitions;
+    private final long version;
+
+    public Snapshot( CdfHeadersProvider provider, String definitions, long version ) {
+      this.provider = provider;
+      this.definitions = definitions;
+      this.version = version;
+    }
+  }
+}
@@ -13,6 +13,13 @@
 
 package org.pentaho.cdf.packager;
 
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import pt.webdetails.cpf.context.api.IUrlProvider;
 import pt.webdetails.cpf.packager.DependenciesPackage;
 import pt.webdetails.cpf.packager.origin.PathOrigin;
@@ -24,6 +31,8 @@ import pt.webdetails.cpf.repository.api.IReadAccess;
  */
 public class StaticDependenciesPackage extends DependenciesPackage {
 
+  private static final Log logger = LogFactory.getLog( StaticDependenciesPackage.class );
+
   private boolean registryClosed = false;
 
   public StaticDependenciesPackage(
@@ -33,10 +42,26 @@ public class StaticDependenciesPackage extends DependenciesPackage {
       IUrlProvider urlProvider,
       PathOrigin origin,
       String[] files ) {
+    this( name, type, factory, urlProvider, origin, files, false );
+  }
+
+  /**
+   * @param contentVersioning if file versions should be a hash of their contents instead of their modification time,
+   *                          so that urls only change when the files do
+   */
+  public StaticDependenciesPackage(
+      String name,
+      PackageType type,
+      IContentAccessFactory factory,
+      IUrlProvider urlProvider,
+      PathOrigin origin,
+      String[] files,
+      boolean contentVersioning ) {
     super( name, type, factory, urlProvider );
     IReadAccess reader = origin.getReader( factory );
     for ( String filePath : files ) {
-      String version = Long.toString( reader.getLastModified( filePath ) );
+      String version = contentVersioning ? getContentVersion( reader, filePath )
+          : Long.toString( reader.getLastModified( filePath ) );
       registerFileDependency( filePath, version, origin, filePath );
     }
     registryClosed = true;
@@ -49,4 +74,34 @@ public class StaticDependenciesPackage extends DependenciesPackage {
     }
     return super.registerFileDependency( name, version, origin, path );
   }
+
+  /**
+   * @return hex encoded MD5 of the file contents, or its modification time if the file can't be read
+   */
+  public static String getContentVersion( IReadAccess reader, String filePath ) {
+    InputStream contents = null;
+    try {
+      contents = reader.getFileInputStream( filePath );
+      MessageDigest digest = MessageDigest.getInstance( "MD5" );
+      byte[] buffer = new byte[ 8192 ];
+      int read;
+      while ( ( read = contents.read( buffer ) ) != -1 ) {
+        digest.update( buffer, 0, read );
+      }
+      return toHex( digest.digest() );
+    } catch ( Exception e ) {
+      logger.error( "Unable to hash " + filePath + ", using its modification time as version.", e );
+      return Long.toString( reader.getLastModified( filePath ) );
+    } finally {
+      IOUtils.closeQuietly( contents );
+    }
+  }
+
+  static String toHex( byte[] bytes ) {
+    StringBuilder hex = new StringBuilder( bytes.length * 2 );
+    for ( byte b : bytes ) {
+      hex.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+    }
+    return hex.toString();
+  }
 }
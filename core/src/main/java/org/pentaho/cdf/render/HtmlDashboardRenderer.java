@@ -19,6 +19,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.cdf.CdfConstants;
 import org.pentaho.cdf.environment.CdfEngine;
+import org.pentaho.cdf.utils.FileResolutionCache;
 
 import pt.webdetails.cpf.Util;
 import pt.webdetails.cpf.repository.api.FileAccess;
@@ -55,10 +56,11 @@ public class HtmlDashboardRenderer {
     IReadAccess systemAccess = CdfEngine.getPluginSystemReader( null );
     IBasicFile dashboardTemplateFile = null;
 
-    if ( !StringUtils.isEmpty( templatePath ) && repoAccess.fileExists( templatePath ) ) {
+    if ( !StringUtils.isEmpty( templatePath )
+        && FileResolutionCache.fileExists( repoAccess, FileResolutionCache.USER_CONTENT, templatePath ) ) {
 
       // Check for access permissions
-      if ( repoAccess.hasAccess( templatePath, FileAccess.EXECUTE ) ) {
+      if ( FileResolutionCache.hasAccess( repoAccess, templatePath, FileAccess.EXECUTE ) ) {
         dashboardTemplateFile = repoAccess.fetchFile( templatePath );
       } else {
         logger.error( "Access Denied to " + templatePath );
@@ -0,0 +1,187 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.render;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Replaces <code>CDF.i18n("key")</code> tags with <code>&lt;span id="key"&gt;&lt;/span&gt;</code> placeholders
+ * ( dots in the key become underscores ), collecting the keys.<br>
+ * Single pass over the characters, without regular expressions or intermediate strings other than the keys.
+ * Tags with no closing <code>")</code> before the next tag are copied as they are.
+ */
+public class I18nTagProcessor {
+
+  // 'CDF', any character but a line terminator, then 'i18n("'
+  private static final String TAG_START = "CDF";
+  private static final String TAG_END = "i18n(\"";
+  private static final int TAG_LENGTH = TAG_START.length() + 1 + TAG_END.length();
+
+  private static final String SPAN_START = "<span id=\"";
+  private static final String SPAN_END = "\"></span>";
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private I18nTagProcessor() {
+  }
+
+  /**
+   * @param content text with i18n tags
+   * @param tags where the tag keys are added, in order
+   * @return the text with the tags replaced
+   */
+  public static String process( String content, List<String> tags ) {
+    char[] chars = content.toCharArray();
+    if ( findTag( chars, 0, chars.length ) < 0 ) {
+      return content;
+    }
+    StringWriter out = new StringWriter( chars.length );
+    try {
+      process( chars, chars.length, out, tags );
+    } catch ( IOException e ) {
+      // not thrown by StringWriter
+      throw new IllegalStateException( e );
+    }
+    return out.toString();
+  }
+
+  /**
+   * Processes each line separately, writing it followed by '\n' whatever its original line terminator, the same as
+   * reading it with {@link java.io.BufferedReader#readLine()}.
+   *
+   * @param in text with i18n tags
+   * @param out where the text is written with the tags replaced
+   * @param tags where the tag keys are added, in order
+   */
+  public static void process( Reader in, Writer out, List<String> tags ) throws IOException {
+    char[] buffer = new char[ BUFFER_SIZE ];
+    char[] line = new char[ BUFFER_SIZE ];
+    int lineLength = 0;
+    boolean pendingLine = false;
+    boolean skipLineFeed = false;
+    int read;
+    while ( ( read = in.read( buffer ) ) != -1 ) {
+      int start = 0;
+      for ( int i = 0; i < read; i++ ) {
+        char c = buffer[ i ];
+        if ( skipLineFeed ) {
+          skipLineFeed = false;
+          if ( c == '\n' ) {
+            start = i + 1;
+            continue;
+          }
+        }
+        if ( c == '\n' || c == '\r' ) {
+          line = append( line, lineLength, buffer, start, i - start );
+          lineLength += i - start;
+          process( line, lineLength, out, tags );
+          out.write( '\n' );
+          lineLength = 0;
+          pendingLine = false;
+          skipLineFeed = c == '\r';
+          start = i + 1;
+        }
+      }
+      if ( start < read ) {
+        line = append( line, lineLength, buffer, start, read - start );
+        lineLength += read - start;
+        pendingLine = true;
+      }
+    }
+    if ( pendingLine ) {
+      process( line, lineLength, out, tags );
+      out.write( '\n' );
+    }
+  }
+
+  private static void process( char[] chars, int length, Writer out, List<String> tags ) throws IOException {
+    int tag = findTag( chars, 0, length );
+    if ( tag < 0 ) {
+      out.write( chars, 0, length );
+      return;
+    }
+    out.write( chars, 0, tag );
+    while ( tag >= 0 ) {
+      int keyStart = tag + TAG_LENGTH;
+      int next = findTag( chars, keyStart, length );
+      int end = next < 0 ? length : next;
+      int keyEnd = findClose( chars, keyStart, end );
+      if ( keyEnd < 0 ) {
+        out.write( chars, tag, end - tag );
+      } else {
+        String key = new String( chars, keyStart, keyEnd - keyStart );
+        tags.add( key );
+        out.write( SPAN_START );
+        // '.' is not permitted in selector ids
+        out.write( key.replace( '.', '_' ) );
+        out.write( SPAN_END );
+        out.write( chars, keyEnd + 2, end - keyEnd - 2 );
+      }
+      tag = next;
+    }
+  }
+
+  /**
+   * @return index of the next tag start, -1 if none
+   */
+  static int findTag( char[] chars, int from, int to ) {
+    for ( int i = from; i <= to - TAG_LENGTH; i++ ) {
+      if ( chars[ i ] == 'C' && matches( chars, i, TAG_START ) && !isLineTerminator( chars[ i + 3 ] )
+          && matches( chars, i + 4, TAG_END ) ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return index of the next '")', -1 if none
+   */
+  private static int findClose( char[] chars, int from, int to ) {
+    for ( int i = from; i < to - 1; i++ ) {
+      if ( chars[ i ] == '"' && chars[ i + 1 ] == ')' ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean matches( char[] chars, int at, String text ) {
+    for ( int i = 0; i < text.length(); i++ ) {
+      if ( chars[ at + i ] != text.charAt( i ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // the line terminators '.' does not match in a regular expression
+  private static boolean isLineTerminator( char c ) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  private static char[] append( char[] line, int lineLength, char[] chars, int from, int length ) {
+    if ( lineLength + length > line.length ) {
+      char[] grown = new char[ Math.max( line.length * 2, lineLength + length ) ];
+      System.arraycopy( line, 0, grown, 0, lineLength );
+      line = grown;
+    }
+    System.arraycopy( chars, from, line, lineLength, length );
+    return line;
+  }
+}
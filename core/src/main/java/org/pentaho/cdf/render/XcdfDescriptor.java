@@ -0,0 +1,54 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.render;
+
+/**
+ * Rendering options read from a .xcdf dashboard file descriptor.
+ */
+public class XcdfDescriptor {
+
+  private final String template;
+  private final String style;
+  private final String messagesBaseFilename;
+  private final boolean isRequire;
+
+  public XcdfDescriptor( String template, String style, String messagesBaseFilename, boolean isRequire ) {
+    this.template = template;
+    this.style = style;
+    this.messagesBaseFilename = messagesBaseFilename;
+    this.isRequire = isRequire;
+  }
+
+  /**
+   * @return the template name, null if the descriptor does not define one
+   */
+  public String getTemplate() {
+    return template;
+  }
+
+  public String getStyle() {
+    return style;
+  }
+
+  /**
+   * @return the messages file base name, null if the descriptor does not define one
+   */
+  public String getMessagesBaseFilename() {
+    return messagesBaseFilename;
+  }
+
+  public boolean isRequire() {
+    return isRequire;
+  }
+}
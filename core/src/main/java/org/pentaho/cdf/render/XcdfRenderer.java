@@ -23,6 +23,8 @@ import org.dom4j.Node;
 import org.pentaho.cdf.CdfConstants;
 import org.pentaho.cdf.InvalidCdfOperationException;
 import org.pentaho.cdf.environment.CdfEngine;
+import org.pentaho.cdf.utils.BoundedCache;
+import org.pentaho.cdf.utils.FileResolutionCache;
 
 import pt.webdetails.cpf.Util;
 import pt.webdetails.cpf.repository.api.FileAccess;
@@ -39,6 +41,12 @@ public class XcdfRenderer {
   private static final String NODE_STYLES = "/cdf/style";
   private static final String NODE_REQUIRE = "/cdf/require";
 
+  // upper bound for parsed descriptors
+  private static final int MAX_DESCRIPTORS = 4096;
+  // dashboard path -> last parsed descriptor
+  private static final BoundedCache<String, CachedDescriptor> descriptors =
+      new BoundedCache<String, CachedDescriptor>( "Xcdf descriptor", MAX_DESCRIPTORS );
+
   private String style;
   private String template;
   private String messagesBaseFilename;
@@ -73,39 +81,41 @@ public class XcdfRenderer {
   public boolean determineDashboardTemplating( final String dashboard, String defaultTemplate )
     throws InvalidCdfOperationException {
 
-    boolean success = false;
-    IUserContentAccess access = getUserContentAccess( null );
+    XcdfDescriptor descriptor = getDescriptor( dashboard );
+    if ( descriptor == null ) {
+      return false;
+    }
+    applyTemplating( descriptor, defaultTemplate );
+    return true;
+  }
 
-    if ( access.fileExists( dashboard ) ) {
-      // Check for access permissions
-      if ( !access.hasAccess( dashboard, FileAccess.EXECUTE ) ) {
-        throw new InvalidCdfOperationException( "Access denied" );
-      }
+  /**
+   * Determines both the templating and the require flag with a single access check and read of the xcdf file
+   *
+   * @param dashboard the dashboard file descriptor path
+   * @param defaultTemplate the default template to use in case the defined is not available no if no template is
+   *                        provided
+   * @return boolean with the success of the operation
+   * @throws InvalidCdfOperationException
+   */
+  public boolean determineDashboard( final String dashboard, String defaultTemplate )
+    throws InvalidCdfOperationException {
 
-      try {
-        Document doc = getDocument( access.fetchFile( dashboard ) );
-        if ( doc.selectSingleNode( NODE_TEMPLATE ) != null ) {
-          template = getNodeText( NODE_TEMPLATE, doc, "" );
-        } else {
-          template = defaultTemplate;
-        }
-        // Get message file base name if any
-        if ( doc.selectSingleNode( NODE_MESSAGES ) != null ) {
-          messagesBaseFilename = getNodeText( NODE_MESSAGES, doc );
-        }
-        // If a "style" tag exists, use that one
-        if ( doc.selectSingleNode( NODE_STYLES ) != null ) {
-          style = getNodeText( NODE_STYLES, doc );
-        } else {
-          style = CdfConstants.DEFAULT_DASHBOARD_STYLE;
-        }
-        success = true;
-      } catch ( IOException e ) {
-        logger.error( e );
-        throw new InvalidCdfOperationException( e );
-      }
+    XcdfDescriptor descriptor = getDescriptor( dashboard );
+    if ( descriptor == null ) {
+      return false;
+    }
+    applyTemplating( descriptor, defaultTemplate );
+    isRequire = descriptor.isRequire();
+    return true;
+  }
+
+  private void applyTemplating( XcdfDescriptor descriptor, String defaultTemplate ) {
+    template = descriptor.getTemplate() != null ? descriptor.getTemplate() : defaultTemplate;
+    if ( descriptor.getMessagesBaseFilename() != null ) {
+      messagesBaseFilename = descriptor.getMessagesBaseFilename();
     }
-    return success;
+    style = descriptor.getStyle();
   }
 
   /**
@@ -130,26 +140,76 @@ public class XcdfRenderer {
    * @throws InvalidCdfOperationException
    */
   public boolean determineRequireDashboard( final String dashboard ) throws InvalidCdfOperationException {
-    boolean success = false;
+    XcdfDescriptor descriptor = getDescriptor( dashboard );
+    if ( descriptor == null ) {
+      return false;
+    }
+    isRequire = descriptor.isRequire();
+    return true;
+  }
+
+  /**
+   * Drops all parsed descriptors.
+   */
+  public static void clearCache() {
+    descriptors.clear();
+  }
 
+  /**
+   * Checks the current user can execute the dashboard, then gets its descriptor, parsing it only if the file changed
+   * since it was last read.
+   *
+   * @param dashboard the dashboard file descriptor path
+   * @return the descriptor, null if the file does not exist
+   * @throws InvalidCdfOperationException if access is denied or the file can't be read
+   */
+  protected XcdfDescriptor getDescriptor( final String dashboard ) throws InvalidCdfOperationException {
     IUserContentAccess access = getUserContentAccess( null );
-    if ( access.fileExists( dashboard ) ) {
-      // Check for access permissions
-      if ( !access.hasAccess( dashboard, FileAccess.EXECUTE ) ) {
-        throw new InvalidCdfOperationException( "Access denied" );
-      }
-      try {
-        Document doc = getDocument( access.fetchFile( dashboard ) );
-        if ( doc.selectSingleNode( NODE_REQUIRE ) != null ) {
-          isRequire = new Boolean( getNodeText( NODE_REQUIRE, doc, "false" ) );
-        }
-        success = true;
-      } catch ( IOException e ) {
-        logger.error( e );
-        throw new InvalidCdfOperationException( e );
+    if ( !FileResolutionCache.fileExists( access, FileResolutionCache.USER_CONTENT, dashboard ) ) {
+      return null;
+    }
+    // Check for access permissions
+    if ( !FileResolutionCache.hasAccess( access, dashboard, FileAccess.EXECUTE ) ) {
+      throw new InvalidCdfOperationException( "Access denied" );
+    }
+    long version = FileResolutionCache.getLastModified( access, FileResolutionCache.USER_CONTENT, dashboard );
+    CachedDescriptor cached = descriptors.get( dashboard );
+    if ( cached != null && cached.version == version ) {
+      return cached.descriptor;
+    }
+    try {
+      XcdfDescriptor descriptor = parseDescriptor( getDocument( access.fetchFile( dashboard ) ) );
+      // without a known version changes could not be detected
+      if ( version > 0 ) {
+        descriptors.put( dashboard, new CachedDescriptor( version, descriptor ) );
       }
+      return descriptor;
+    } catch ( IOException e ) {
+      logger.error( e );
+      throw new InvalidCdfOperationException( e );
     }
-    return success;
+  }
+
+  protected XcdfDescriptor parseDescriptor( Document doc ) {
+    String template = null;
+    String messages = null;
+    String style = CdfConstants.DEFAULT_DASHBOARD_STYLE;
+    boolean require = false;
+    if ( doc.selectSingleNode( NODE_TEMPLATE ) != null ) {
+      template = getNodeText( NODE_TEMPLATE, doc, "" );
+    }
+    // Get message file base name if any
+    if ( doc.selectSingleNode( NODE_MESSAGES ) != null ) {
+      messages = getNodeText( NODE_MESSAGES, doc );
+    }
+    // If a "style" tag exists, use that one
+    if ( doc.selectSingleNode( NODE_STYLES ) != null ) {
+      style = getNodeText( NODE_STYLES, doc );
+    }
+    if ( doc.selectSingleNode( NODE_REQUIRE ) != null ) {
+      require = Boolean.parseBoolean( getNodeText( NODE_REQUIRE, doc, "false" ) );
+    }
+    return new XcdfDescriptor( template, style, messages, require );
   }
 
   /**
@@ -199,4 +259,14 @@ public class XcdfRenderer {
   protected String getNodeText( String xpath, Node node, String defaultValue ) {
     return XmlDom4JUtils.getNodeText( xpath, node, defaultValue );
   }
+
+  private static class CachedDescriptor {
+    private final long version;
+    private final XcdfDescriptor descriptor;
+
+    public CachedDescriptor( long version, XcdfDescriptor descriptor ) {
+      this.version = version;
+      this.descriptor = descriptor;
+    }
+  }
 }
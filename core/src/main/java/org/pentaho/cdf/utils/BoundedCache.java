@@ -0,0 +1,86 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * In-memory cache that is dropped as a whole when it reaches its upper bound, so that it can't grow with every
+ * distinct key seen. Entries are read again on demand afterwards, which is cheaper than tracking their use.
+ */
+public class BoundedCache<K, V> {
+
+  private static final Log logger = LogFactory.getLog( BoundedCache.class );
+
+  private final String name;
+  private final int maxEntries;
+  private final ConcurrentMap<K, V> entries = new ConcurrentHashMap<K, V>();
+
+  /**
+   * @param name used in logs, e.g. "Render" for the render cache
+   * @param maxEntries upper bound for entries, the cache is dropped when reached
+   */
+  public BoundedCache( String name, int maxEntries ) {
+    this.name = name;
+    this.maxEntries = maxEntries;
+  }
+
+  public V get( K key ) {
+    return entries.get( key );
+  }
+
+  public void put( K key, V value ) {
+    if ( !entries.containsKey( key ) ) {
+      makeRoom();
+    }
+    entries.put( key, value );
+  }
+
+  /**
+   * @return the value already cached, null if the given one was added
+   */
+  public V putIfAbsent( K key, V value ) {
+    if ( !entries.containsKey( key ) ) {
+      makeRoom();
+    }
+    return entries.putIfAbsent( key, value );
+  }
+
+  public boolean replace( K key, V oldValue, V newValue ) {
+    return entries.replace( key, oldValue, newValue );
+  }
+
+  public boolean remove( K key, V value ) {
+    return entries.remove( key, value );
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  private void makeRoom() {
+    if ( entries.size() >= maxEntries ) {
+      logger.debug( name + " cache is full, clearing it." );
+      entries.clear();
+    }
+  }
+}
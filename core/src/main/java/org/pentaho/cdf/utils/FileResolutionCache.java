@@ -0,0 +1,140 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.utils;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.cdf.environment.CdfEngine;
+import org.pentaho.cdf.environment.ICdfEnvironment;
+
+import pt.webdetails.cpf.repository.api.FileAccess;
+import pt.webdetails.cpf.repository.api.IReadAccess;
+import pt.webdetails.cpf.repository.api.IUserContentAccess;
+
+/**
+ * Keeps the results of file existence, access and modification time lookups for a short while, both for files that
+ * exist and for files that don't, so that resolving the same templates and dashboards on every request doesn't query
+ * the repository each time.<br>
+ * Lookups are keyed by reader, path and, except for the plugin system folder, the current user, since repository
+ * permissions differ between users. Disabled while the time to live is 0.
+ */
+public class FileResolutionCache {
+
+  public static final String USER_CONTENT = "user";
+  public static final String PLUGIN_SYSTEM = "system";
+  public static final String PLUGIN_REPOSITORY = "repository";
+
+  // upper bound for cached lookups
+  private static final int MAX_ENTRIES = 4096;
+
+  private static final BoundedCache<String, Entry> entries =
+      new BoundedCache<String, Entry>( "File resolution", MAX_ENTRIES );
+  private static volatile long ttl;
+
+  /**
+   * Reads a value from the repository when it is not cached.
+   */
+  public interface Lookup<T> {
+    T lookup();
+  }
+
+  private FileResolutionCache() {
+  }
+
+  /**
+   * @param ttl milliseconds lookups are kept, 0 to disable the cache
+   */
+  public static void setTtl( long ttl ) {
+    FileResolutionCache.ttl = ttl;
+    clear();
+  }
+
+  /**
+   * Drops all lookups, so that files added, removed or changed since are picked up right away.
+   */
+  public static void clear() {
+    entries.clear();
+  }
+
+  /**
+   * @param readerName the reader kind and base path, one of the reader constants if it has none
+   */
+  public static boolean fileExists( final IReadAccess reader, String readerName, final String path ) {
+    return get( "exists", readerName, path, new Lookup<Boolean>() {
+      @Override
+      public Boolean lookup() {
+        return reader.fileExists( path );
+      }
+    } );
+  }
+
+  /**
+   * @param readerName the reader kind and base path, one of the reader constants if it has none
+   */
+  public static long getLastModified( final IReadAccess reader, String readerName, final String path ) {
+    return get( "lastModified", readerName, path, new Lookup<Long>() {
+      @Override
+      public Long lookup() {
+        return reader.getLastModified( path );
+      }
+    } );
+  }
+
+  public static boolean hasAccess( final IUserContentAccess reader, final String path, final FileAccess access ) {
+    return get( "access:" + access, USER_CONTENT, path, new Lookup<Boolean>() {
+      @Override
+      public Boolean lookup() {
+        return reader.hasAccess( path, access );
+      }
+    } );
+  }
+
+  /**
+   * Keeps any other value read from the files at a path, e.g. the version of the files in a folder.
+   *
+   * @param lookupName what is read, distinct from the lookups above
+   * @param readerName the reader kind and base path, one of the reader constants if it has none
+   */
+  @SuppressWarnings( "unchecked" )
+  public static <T> T get( String lookupName, String readerName, String path, Lookup<T> lookup ) {
+    long ttl = FileResolutionCache.ttl;
+    if ( ttl <= 0 ) {
+      return lookup.lookup();
+    }
+    String user = PLUGIN_SYSTEM.equals( readerName ) ? null : getUserName();
+    String key = StringUtils.join( new Object[] { lookupName, readerName, user, path }, '|' );
+    long now = System.currentTimeMillis();
+    Entry entry = entries.get( key );
+    if ( entry != null && entry.expires > now ) {
+      return (T) entry.value;
+    }
+    T value = lookup.lookup();
+    entries.put( key, new Entry( value, now + ttl ) );
+    return value;
+  }
+
+  private static String getUserName() {
+    ICdfEnvironment environment = CdfEngine.getEnvironment();
+    return environment != null ? environment.getUserName() : null;
+  }
+
+  private static class Entry {
+    private final Object value;
+    private final long expires;
+
+    private Entry( Object value, long expires ) {
+      this.value = value;
+      this.expires = expires;
+    }
+  }
+}
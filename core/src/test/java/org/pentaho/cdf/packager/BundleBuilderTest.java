@@ -0,0 +1,101 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.packager;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BundleBuilderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testBuild() throws Exception {
+    File pluginDir = folder.newFolder( "plugin" );
+    File sourceDir = folder.newFolder( "source" );
+    FileUtils.writeStringToFile( new File( pluginDir, "resources.properties" ),
+        "script=js/a.js,js/b.js\nlink=css/a.css", "UTF-8" );
+    FileUtils.writeStringToFile( new File( pluginDir, "resources.blueprint.properties" ),
+        "blueprint.script=js/c.js", "UTF-8" );
+    FileUtils.writeStringToFile( new File( sourceDir, "js/a.js" ), "var a = 1 // first", "UTF-8" );
+    FileUtils.writeStringToFile( new File( sourceDir, "js/b.js" ), "var b = 2;", "UTF-8" );
+    FileUtils.writeStringToFile( new File( pluginDir, "js/c.js" ), "var c = 3;", "UTF-8" );
+    FileUtils.writeStringToFile( new File( sourceDir, "css/a.css" ), "a { background: url(img/a.png); }", "UTF-8" );
+
+    Properties manifest = new BundleBuilder( pluginDir, Collections.singletonList( sourceDir ) ).build();
+
+    String blueprintScript = manifest.getProperty( "cdf-blueprint-script-includes" );
+    assertTrue( blueprintScript.startsWith( BundleBuilder.BUNDLE_DIR + "cdf-blueprint-script-includes." ) );
+    assertTrue( blueprintScript.endsWith( ".js" ) );
+    assertEquals( "js/a.js,js/b.js,js/c.js", manifest.getProperty( "cdf-blueprint-script-includes.files" ) );
+    // minified like runtime packages
+    String script = FileUtils.readFileToString( new File( pluginDir, blueprintScript ), "UTF-8" );
+    assertTrue( script.contains( "var a=1" ) );
+    assertTrue( script.contains( "var b=2;" ) );
+    assertTrue( script.contains( "var c=3;" ) );
+    assertFalse( script.contains( "first" ) );
+    assertTrue( new File( pluginDir, blueprintScript + PrecompressedBundles.GZIP_SUFFIX ).isFile() );
+    // same files, same bundle
+    assertEquals( manifest.getProperty( "cdf-mobile-script-includes" ),
+        manifest.getProperty( "cdf-clean-script-includes" ) );
+    assertEquals( "a { background: url(../../css/img/a.png); }\n", FileUtils.readFileToString(
+        new File( pluginDir, manifest.getProperty( "cdf-blueprint-style-includes" ) ), "UTF-8" ) );
+    assertNull( manifest.getProperty( "cdf-blueprint-ie8style-includes" ) );
+
+    Properties stored = new Properties();
+    InputStream in = FileUtils.openInputStream( new File( pluginDir, CdfHeadersProvider.BUNDLE_MANIFEST ) );
+    try {
+      stored.load( in );
+    } finally {
+      in.close();
+    }
+    assertEquals( manifest, stored );
+  }
+
+  @Test
+  public void testBuildUnminifiable() throws Exception {
+    File pluginDir = folder.newFolder( "plugin" );
+    FileUtils.writeStringToFile( new File( pluginDir, "resources.properties" ), "script=js/a.js\nlink=css/a.css",
+        "UTF-8" );
+    FileUtils.writeStringToFile( new File( pluginDir, "js/a.js" ), "var a = 'unterminated", "UTF-8" );
+    FileUtils.writeStringToFile( new File( pluginDir, "css/a.css" ), "a { color: red; }", "UTF-8" );
+
+    Properties manifest = new BundleBuilder( pluginDir, Collections.<File>emptyList() ).build();
+
+    // packaged at runtime instead of served unminified
+    assertNull( manifest.getProperty( "cdf-blueprint-script-includes" ) );
+    assertTrue( manifest.getProperty( "cdf-blueprint-style-includes" ).endsWith( ".css" ) );
+  }
+
+  @Test
+  public void testRebaseUrls() {
+    assertEquals( "a { background: url('../../js-legacy/lib/img/a.png'); }",
+        BundleBuilder.rebaseUrls( "a { background: url('../img/a.png'); }", "js-legacy/lib/theme/a.css" ) );
+    String absolute = "a { background: url(data:image/png;base64,AAA); } b { background: url(\"/abs.png\"); }";
+    assertEquals( absolute, BundleBuilder.rebaseUrls( absolute, "js-legacy/lib/a.css" ) );
+  }
+}
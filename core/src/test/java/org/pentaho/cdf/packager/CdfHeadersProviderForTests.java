@@ -26,6 +26,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
 
 import static org.mockito.Mockito.*;
 
@@ -38,6 +39,14 @@ public class CdfHeadersProviderForTests extends CdfHeadersProvider {
 
   private static final String resourceDir = System.getProperty( "user.dir" ) + "/src/test/resources/resource/";
 
+  public CdfHeadersProviderForTests() {
+    super();
+  }
+
+  public CdfHeadersProviderForTests( List<String> warmUpTypes ) {
+    super( false, warmUpTypes );
+  }
+
   protected IContentAccessFactory getContentAccess() {
     mockFactory = mock( IContentAccessFactory.class );
     mockReadAccess = mock( IReadAccess.class );
@@ -78,4 +87,7 @@ public class CdfHeadersProviderForTests extends CdfHeadersProvider {
 
   }
 
+  protected void prepareMinified( DependenciesPackage pkg ) {
+  }
+
 }
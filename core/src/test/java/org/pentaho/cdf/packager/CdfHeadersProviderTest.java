@@ -17,8 +17,26 @@ import junit.framework.TestCase;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import pt.webdetails.cpf.packager.DependenciesPackage;
+import pt.webdetails.cpf.utils.CharsetHelper;
+
+import static java.util.Arrays.asList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class CdfHeadersProviderTest extends TestCase {
 
@@ -89,6 +107,199 @@ public class CdfHeadersProviderTest extends TestCase {
     assertEquals( blueprintExpectedHeaders, blueprintHeaders );
   }
 
+  @Test
+  public void testGetHeadersCached() throws Exception {
+    CdfHeadersProvider provider = spy( new CdfHeadersProviderForTests() );
+    List<String> componentTypes = new ArrayList<String>();
+    componentTypes.add( "testComponent" );
+
+    String first = provider.getHeaders( "blueprint", false, componentTypes );
+    String second = provider.getHeaders( "blueprint", false, componentTypes );
+
+    assertSame( first, second );
+    assertEquals( first, new String( provider.getEncodedHeaders( "blueprint", false, null, componentTypes ),
+        CharsetHelper.getEncoding() ) );
+    // 3 blueprint packages, built only once
+    verify( provider, times( 3 ) ).appendDependencies( any( StringBuilder.class ), any( DependenciesPackage.class ),
+        anyBoolean(), any() );
+
+    provider.getHeaders( "blueprint", true, componentTypes );
+    verify( provider, times( 6 ) ).appendDependencies( any( StringBuilder.class ), any( DependenciesPackage.class ),
+        anyBoolean(), any() );
+
+    provider.clearCache();
+    assertEquals( first, provider.getHeaders( "blueprint", false, componentTypes ) );
+    verify( provider, times( 9 ) ).appendDependencies( any( StringBuilder.class ), any( DependenciesPackage.class ),
+        anyBoolean(), any() );
+  }
+
+  @Test
+  public void testWriteHeaders() throws Exception {
+    List<String> componentTypes = asList( "testComponent" );
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    cdfHeadersProvider.writeHeaders( out, "bootstrap", false, null, componentTypes );
+
+    assertEquals( getHeadersByType( "bootstrap" ), new String( out.toByteArray(), CharsetHelper.getEncoding() ) );
+  }
+
+  @Test
+  public void testGetPreloadLinks() throws Exception {
+    String headers = "<!-- cdf-blueprint-script-includes -->"
+        + "\t\t<script language=\"javascript\" type=\"text/javascript\" src=\"/res/js/a.js?v=1\"></script>\n"
+        + "<!-- cdf-blueprint-style-includes -->"
+        + "\t\t<link href=\"/res/css/a.css?v=2\" rel=\"stylesheet\" type=\"text/css\" />\n"
+        + "<!-- cdf-blueprint-ie8style-includes --><!--[if lte IE 8]>"
+        + "\t\t<link href=\"/res/css/ie.css\" rel=\"stylesheet\" type=\"text/css\" />\n<![endif]-->\n"
+        + "<link href=\"/res/css/a.css.map\" rel=\"map\" />";
+
+    assertEquals( asList( "</res/js/a.js?v=1>; rel=preload; as=script", "</res/css/a.css?v=2>; rel=preload; as=style" ),
+        CdfHeadersProvider.getPreloadLinks( headers ) );
+    assertTrue( CdfHeadersProvider.getPreloadLinks( "<!-- cdf-blueprint-script-includes -->" ).isEmpty() );
+  }
+
+  @Test
+  public void testWithVersion() throws Exception {
+    assertEquals( "<script type=\"text/javascript\" src=\"/res/js/a.js?v=abc\"></script>"
+        + "<link href=\"/res/css/a.css?v=abc\" rel=\"stylesheet\" type=\"text/css\" />",
+        CdfHeadersProvider.withVersion( "<script type=\"text/javascript\" src=\"/res/js/a.js?v=123\"></script>"
+        + "<link href=\"/res/css/a.css\" rel=\"stylesheet\" type=\"text/css\" />", "abc" ) );
+  }
+
+  @Test
+  public void testGetComponentFiles() throws Exception {
+    List<String> componentTypes = new ArrayList<String>();
+    componentTypes.add( "unknownComponent" );
+    componentTypes.add( "testComponent" );
+
+    assertEquals( asList( "js/lib/file.js" ),
+        cdfHeadersProvider.getComponentFiles( DependenciesPackage.PackageType.JS, componentTypes ) );
+    assertEquals( asList( "js/lib/file.css" ),
+        cdfHeadersProvider.getComponentFiles( DependenciesPackage.PackageType.CSS, componentTypes ) );
+    assertTrue( cdfHeadersProvider.getComponentFiles( DependenciesPackage.PackageType.MAP, componentTypes ).isEmpty() );
+
+    componentTypes.remove( "testComponent" );
+    assertTrue( cdfHeadersProvider.getComponentFiles( DependenciesPackage.PackageType.JS, componentTypes ).isEmpty() );
+    assertEquals( "<!-- cdf-blueprint-script-includes -->cdf-blueprint-script-includes<!--"
+        + " cdf-blueprint-style-includes -->cdf-blueprint-style-includes<!-- cdf-blueprint-ie8style-includes -->"
+        + "cdf-blueprint-ie8style-includes<!-- cdf-cdf-dashboard-script-includes -->"
+        + "<!-- cdf-cdf-dashboard-style-includes -->",
+        cdfHeadersProvider.getHeaders( "blueprint", false, componentTypes ) );
+  }
+
+  @Test
+  public void testGetComponentFilesAsResolvedFromProperties() throws Exception {
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream( System.getProperty( "user.dir" )
+        + "/src/test/resources/resource/resources.cdf.dashboards.properties" );
+    try {
+      properties.load( in );
+    } finally {
+      in.close();
+    }
+    Set<String> components = new TreeSet<String>();
+    for ( String name : properties.stringPropertyNames() ) {
+      components.add( name.substring( 0, name.lastIndexOf( '.' ) ) );
+    }
+    components.add( "unknownComponent" );
+    List<String> allComponents = new ArrayList<String>( components );
+
+    // same files, in the same order, as looking up each property of each component on every request
+    for ( DependenciesPackage.PackageType type : DependenciesPackage.PackageType.values() ) {
+      for ( String component : components ) {
+        List<String> componentTypes = asList( component );
+        assertEquals( type + " " + component, resolveComponentFiles( properties, type, componentTypes ),
+            cdfHeadersProvider.getComponentFiles( type, componentTypes ) );
+      }
+      assertEquals( type.toString(), resolveComponentFiles( properties, type, allComponents ),
+          cdfHeadersProvider.getComponentFiles( type, allComponents ) );
+    }
+    assertEquals( asList( "js/lib/legacy-before.js", "js/lib/legacy.js", "js/lib/legacy-extra.js",
+        "js/lib/legacy-ie8.js", "js/lib/legacy-after.js" ),
+        cdfHeadersProvider.getComponentFiles( DependenciesPackage.PackageType.JS, asList( "legacyComponent" ) ) );
+  }
+
+  /**
+   * Component files as resolved before they were indexed.
+   */
+  private static List<String> resolveComponentFiles( Properties properties, DependenciesPackage.PackageType type,
+                                                     List<String> componentTypes ) {
+    String[] suffixes;
+    switch ( type ) {
+      case JS:
+        suffixes = new String[] { ".ie8scriptBeforeScript", ".script", ".ie8script", ".ie8scriptAfterLink" };
+        break;
+      case CSS:
+        suffixes = new String[] { ".link", ".ie8link" };
+        break;
+      default:
+        suffixes = new String[ 0 ];
+        break;
+    }
+    List<String> filePaths = new ArrayList<String>();
+    for ( String name : componentTypes ) {
+      for ( String suffix : suffixes ) {
+        String tmp = name.concat( suffix );
+        if ( properties.containsKey( tmp ) ) {
+          filePaths.addAll( Arrays.asList( properties.getProperty( tmp ).split( "," ) ) );
+        }
+      }
+    }
+    return filePaths;
+  }
+
+  @Test
+  public void testGetComponentTypes() throws Exception {
+    assertEquals( asList( "otherComponent", "testComponent" ), cdfHeadersProvider.getComponentTypes(
+        "{ type: 'testComponent' }, { type: \"OtherComponent\" }" ) );
+    assertEquals( asList( "otherComponent" ), cdfHeadersProvider.getComponentTypes( "{ type: 'other' }" ) );
+    assertTrue( cdfHeadersProvider.getComponentTypes( "{ type: 'tableComponent' }" ).isEmpty() );
+    // every declaration is seen, even when one is not closed
+    assertEquals( asList( "testComponent" ), cdfHeadersProvider.getComponentTypes(
+        "{ type: \"none type: 'testComponent' }" ) );
+  }
+
+  @Test
+  public void testGetComponentTypesCached() throws Exception {
+    String dashboard = "{ type: 'testComponent' }";
+    List<String> componentTypes = cdfHeadersProvider.getComponentTypes( dashboard );
+    componentTypes.add( "changed" );
+    assertEquals( asList( "testComponent" ), cdfHeadersProvider.getComponentTypes( dashboard ) );
+    cdfHeadersProvider.clearCache();
+    assertEquals( asList( "testComponent" ), cdfHeadersProvider.getComponentTypes( dashboard ) );
+  }
+
+  @Test
+  public void testGetComponentTypesByVersion() throws Exception {
+    assertEquals( asList( "testComponent" ),
+        cdfHeadersProvider.getComponentTypes( "{ type: 'testComponent' }", "/public/dashboard.html:1" ) );
+    // same version, content not scanned again
+    assertEquals( asList( "testComponent" ),
+        cdfHeadersProvider.getComponentTypes( "{ type: 'other' }", "/public/dashboard.html:1" ) );
+    assertEquals( asList( "otherComponent" ),
+        cdfHeadersProvider.getComponentTypes( "{ type: 'other' }", "/public/dashboard.html:2" ) );
+  }
+
+  @Test
+  public void testGetHeadersLazy() throws Exception {
+    CdfHeadersProvider lazyProvider = new CdfHeadersProviderForTests( new ArrayList<String>() );
+    for ( String type : asList( "blueprint", "mobile", "bootstrap", "clean" ) ) {
+      assertEquals( getHeadersByType( type ), lazyProvider.getHeaders( type, false, null, asList( "testComponent" ) ) );
+    }
+  }
+
+  @Test
+  public void testGetHeadersRetriesFailedPackages() throws Exception {
+    CdfHeadersProvider provider = spy( new CdfHeadersProviderForTests( new ArrayList<String>() ) );
+    doThrow( new IllegalStateException( "broken" ) ).doCallRealMethod().when( provider )
+        .createDependenciesPackages( "blueprint" );
+    List<String> componentTypes = asList( "testComponent" );
+
+    String failed = provider.getHeaders( "blueprint", false, null, componentTypes );
+    assertFalse( failed.contains( "cdf-blueprint" ) );
+    // neither the failed build nor the incomplete headers are kept
+    assertEquals( getHeadersByType( "blueprint" ), provider.getHeaders( "blueprint", false, null, componentTypes ) );
+    verify( provider, times( 2 ) ).createDependenciesPackages( "blueprint" );
+  }
 
   private String getHeadersByType( String type ) {
     List<String> componentTypes = new ArrayList<String>();
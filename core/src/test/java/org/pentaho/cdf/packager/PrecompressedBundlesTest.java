@@ -0,0 +1,84 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.packager;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import pt.webdetails.cpf.repository.api.IRWAccess;
+import pt.webdetails.cpf.repository.api.IReadAccess;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class PrecompressedBundlesTest {
+
+  @Test
+  public void testGetIncludedPaths() {
+    String includes = "<script language=\"javascript\" type=\"text/javascript\" "
+        + "src=\"/pentaho/plugin/pentaho-cdf/api/resources/js/cdf-blueprint-script-includes.js?v=123\"></script>"
+        + "<link href=\"/pentaho/plugin/pentaho-cdf/api/resources/css/cdf-blueprint-style-includes.css?v=456\" "
+        + "rel=\"stylesheet\" type=\"text/css\" />"
+        + "<script src=\"http://elsewhere/some.js\"></script>";
+
+    assertEquals( asList( "js/cdf-blueprint-script-includes.js", "css/cdf-blueprint-style-includes.css" ),
+        PrecompressedBundles.getIncludedPaths( includes, "/pentaho/plugin/pentaho-cdf/api/resources" ) );
+    assertTrue( PrecompressedBundles.getIncludedPaths( null, "/resources" ).isEmpty() );
+  }
+
+  @Test
+  public void testCompress() throws Exception {
+    IReadAccess reader = mock( IReadAccess.class );
+    IRWAccess writer = mock( IRWAccess.class );
+    doReturn( true ).when( reader ).fileExists( "js/bundle.js" );
+    doReturn( 10L ).when( reader ).getLastModified( "js/bundle.js" );
+    doReturn( new ByteArrayInputStream( "var a = 1;".getBytes( "UTF-8" ) ) ).when( reader )
+        .getFileInputStream( "js/bundle.js" );
+    doReturn( true ).when( writer ).saveFile( anyString(), any( InputStream.class ) );
+
+    assertNull( PrecompressedBundles.getPrecompressed( reader, "js/bundle.js" ) );
+    assertTrue( PrecompressedBundles.compress( reader, writer, "js/bundle.js" ) );
+
+    ArgumentCaptor<InputStream> saved = ArgumentCaptor.forClass( InputStream.class );
+    verify( writer ).saveFile( eq( "js/bundle.js.gz" ), saved.capture() );
+    assertEquals( "var a = 1;", IOUtils.toString( new GZIPInputStream( saved.getValue() ), "UTF-8" ) );
+  }
+
+  @Test
+  public void testCompressUpToDate() throws Exception {
+    IReadAccess reader = mock( IReadAccess.class );
+    IRWAccess writer = mock( IRWAccess.class );
+    doReturn( true ).when( reader ).fileExists( "js/bundle.js" );
+    doReturn( true ).when( reader ).fileExists( "js/bundle.js.gz" );
+    doReturn( 10L ).when( reader ).getLastModified( "js/bundle.js" );
+    doReturn( 20L ).when( reader ).getLastModified( "js/bundle.js.gz" );
+
+    assertEquals( "js/bundle.js.gz", PrecompressedBundles.getPrecompressed( reader, "js/bundle.js" ) );
+    assertTrue( PrecompressedBundles.compress( reader, writer, "js/bundle.js" ) );
+    verify( writer, never() ).saveFile( anyString(), any( InputStream.class ) );
+  }
+}
@@ -0,0 +1,84 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.packager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class ReloadingCdfHeadersProviderTest {
+
+  private List<CdfHeadersProvider> built;
+  private ReloadingCdfHeadersProvider reloadingProvider;
+
+  @Before
+  public void setUp() {
+    built = new ArrayList<CdfHeadersProvider>();
+    reloadingProvider = new ReloadingCdfHeadersProvider() {
+      @Override
+      protected CdfHeadersProvider createProvider() {
+        CdfHeadersProvider provider = mock( CdfHeadersProvider.class );
+        doReturn( "resources.properties:1,resources.blueprint.properties:1," ).when( provider )
+          .getDefinitionsSignature();
+        doReturn( "headers" + built.size() ).when( provider ).getHeaders( "blueprint", false, null );
+        built.add( provider );
+        return provider;
+      }
+    };
+  }
+
+  @Test
+  public void testReloadIfModified() {
+    assertEquals( 1, built.size() );
+    assertEquals( "headers0", reloadingProvider.getHeaders( "blueprint", false, null ) );
+
+    assertFalse( reloadingProvider.reloadIfModified() );
+    assertEquals( 1, built.size() );
+
+    long version = reloadingProvider.getVersion();
+    doReturn( "resources.properties:1,resources.blueprint.properties:2," ).when( built.get( 0 ) )
+      .getDefinitionsSignature();
+    assertTrue( reloadingProvider.reloadIfModified() );
+    assertEquals( 2, built.size() );
+    assertSame( built.get( 1 ), reloadingProvider.getProvider() );
+    assertEquals( "headers1", reloadingProvider.getHeaders( "blueprint", false, null ) );
+    assertTrue( reloadingProvider.getVersion() > version );
+    assertTrue( reloadingProvider.getLastReloadDuration() >= 0 );
+  }
+
+  @Test
+  public void testReloadIfDeletedOrOlder() {
+    // definition file deleted
+    doReturn( "resources.properties:1," ).when( built.get( 0 ) ).getDefinitionsSignature();
+    assertTrue( reloadingProvider.reloadIfModified() );
+    assertEquals( 2, built.size() );
+
+    doReturn( "resources.properties:1," ).when( built.get( 1 ) ).getDefinitionsSignature();
+    assertFalse( reloadingProvider.reloadIfModified() );
+
+    // replaced by an older one
+    doReturn( "resources.properties:0," ).when( built.get( 1 ) ).getDefinitionsSignature();
+    assertTrue( reloadingProvider.reloadIfModified() );
+    assertEquals( 3, built.size() );
+  }
+}
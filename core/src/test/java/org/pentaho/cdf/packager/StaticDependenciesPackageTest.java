@@ -0,0 +1,53 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.packager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import pt.webdetails.cpf.repository.api.IReadAccess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+public class StaticDependenciesPackageTest {
+
+  @Test
+  public void testGetContentVersion() throws Exception {
+    IReadAccess reader = mock( IReadAccess.class );
+    doReturn( new ByteArrayInputStream( "abc".getBytes( "UTF-8" ) ) ).when( reader ).getFileInputStream( "a.js" );
+    doReturn( new ByteArrayInputStream( "abc".getBytes( "UTF-8" ) ) ).when( reader ).getFileInputStream( "b.js" );
+    doReturn( new ByteArrayInputStream( "abd".getBytes( "UTF-8" ) ) ).when( reader ).getFileInputStream( "c.js" );
+    doReturn( 1L ).when( reader ).getLastModified( "a.js" );
+    doReturn( 2L ).when( reader ).getLastModified( "b.js" );
+
+    String version = StaticDependenciesPackage.getContentVersion( reader, "a.js" );
+    assertEquals( "900150983cd24fb0d6963f7d28e17f72", version );
+    assertEquals( version, StaticDependenciesPackage.getContentVersion( reader, "b.js" ) );
+    assertNotEquals( version, StaticDependenciesPackage.getContentVersion( reader, "c.js" ) );
+  }
+
+  @Test
+  public void testGetContentVersionUnreadable() throws Exception {
+    IReadAccess reader = mock( IReadAccess.class );
+    doThrow( new IOException() ).when( reader ).getFileInputStream( "a.js" );
+    doReturn( 1234L ).when( reader ).getLastModified( "a.js" );
+
+    assertEquals( "1234", StaticDependenciesPackage.getContentVersion( reader, "a.js" ) );
+  }
+}
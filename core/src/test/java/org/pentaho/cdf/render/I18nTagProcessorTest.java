@@ -0,0 +1,162 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.render;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class I18nTagProcessorTest {
+
+  private static final Pattern TRAILING_TAG = Pattern.compile( "CDF.i18n\\(\"\\z" );
+
+  private static final String[] SAMPLES = {
+    "",
+    "no tags here",
+    "CDF.i18n(\"first\")",
+    "<h1>CDF.i18n(\"title.main\")</h1>",
+    "a CDF.i18n(\"x\") b CDF.i18n(\"y.z\") c",
+    "CDF_i18n(\"any.separator\") and CDFi18n(\"no separator\")",
+    "CDF.i18n(\"\")",
+    "CDF.i18n(\"with \\\" quote\") then \")",
+    "var msg = CDF.i18n(\"key\"); CDF.i18n",
+    "CDF.i18n(\"multi\")\r\nline\rCDF.i18n(\"text\")\n\nend"
+  };
+
+  private static final String[] TOKENS = {
+    "CDF.i18n(\"", "CDF-i18n(\"", "CDF", "i18n(", "\")", "\"", ")", ".", "key", " ", "\n", "\r\n", "<p>"
+  };
+
+  @Test
+  public void testProcess() {
+    List<String> tags = new ArrayList<String>();
+    assertEquals( "<p><span id=\"a_b\"></span></p><span id=\"c\"></span>!",
+        I18nTagProcessor.process( "<p>CDF.i18n(\"a.b\")</p>CDF.i18n(\"c\")!", tags ) );
+    assertEquals( Arrays.asList( "a.b", "c" ), tags );
+  }
+
+  @Test
+  public void testUnclosedTagKept() {
+    List<String> tags = new ArrayList<String>();
+    assertEquals( "CDF.i18n(\"a <span id=\"b\"></span>",
+        I18nTagProcessor.process( "CDF.i18n(\"a CDF.i18n(\"b\")", tags ) );
+    assertEquals( Arrays.asList( "b" ), tags );
+  }
+
+  @Test
+  public void testSeparatorIsNotLineTerminator() {
+    String content = "CDF\ni18n(\"a\")";
+    List<String> tags = new ArrayList<String>();
+    assertEquals( content, I18nTagProcessor.process( content, tags ) );
+    assertEquals( 0, tags.size() );
+  }
+
+  @Test
+  public void testSameAsSplit() throws Exception {
+    for ( String sample : SAMPLES ) {
+      assertSameAsSplit( sample );
+    }
+    Random random = new Random( 42 );
+    for ( int i = 0; i < 2000; i++ ) {
+      StringBuilder sample = new StringBuilder();
+      int tokens = random.nextInt( 20 );
+      for ( int j = 0; j < tokens; j++ ) {
+        sample.append( TOKENS[ random.nextInt( TOKENS.length ) ] );
+      }
+      assertSameAsSplit( sample.toString() );
+    }
+  }
+
+  @Test
+  public void testLongLines() throws Exception {
+    StringBuilder sample = new StringBuilder();
+    for ( int i = 0; i < 5000; i++ ) {
+      sample.append( "<div>CDF.i18n(\"key." ).append( i ).append( "\")</div>" );
+      if ( i % 1000 == 0 ) {
+        sample.append( "\r\n" );
+      }
+    }
+    assertSameAsSplit( sample.toString() );
+  }
+
+  private void assertSameAsSplit( String content ) throws Exception {
+    List<String> splitTags = new ArrayList<String>();
+    String expected = splitLines( content, splitTags );
+    if ( expected != null ) {
+      List<String> tags = new ArrayList<String>();
+      StringWriter out = new StringWriter();
+      I18nTagProcessor.process( new StringReader( content ), out, tags );
+      assertEquals( content, expected, out.toString() );
+      assertEquals( content, splitTags, tags );
+    }
+
+    splitTags.clear();
+    expected = split( content, splitTags );
+    if ( expected != null ) {
+      List<String> tags = new ArrayList<String>();
+      assertEquals( content, expected, I18nTagProcessor.process( content, tags ) );
+      assertEquals( content, splitTags, tags );
+    }
+  }
+
+  // reference implementation, line by line as CdfHtmlRenderer read dashboards
+  private static String splitLines( String content, List<String> tags ) throws Exception {
+    BufferedReader reader = new BufferedReader( new StringReader( content ) );
+    StringBuilder sb = new StringBuilder();
+    String line;
+    while ( ( line = reader.readLine() ) != null ) {
+      String processed = split( line, tags );
+      if ( processed == null ) {
+        return null;
+      }
+      sb.append( processed + "\n" );
+    }
+    return sb.toString();
+  }
+
+  // reference implementation, as CdfHtmlRenderer.processi18nTags used to be;
+  // null where it failed on unclosed tags or dropped a trailing tag start
+  private static String split( String content, List<String> tags ) {
+    if ( TRAILING_TAG.matcher( content ).find() ) {
+      return null;
+    }
+    String[] test = content.split( "CDF.i18n\\(\"" );
+    if ( test.length == 1 ) {
+      return content;
+    }
+    StringBuffer resBuffer = new StringBuffer();
+    resBuffer.append( test[ 0 ] );
+    for ( int i = 1; i < test.length; i++ ) {
+      resBuffer.append( "<span id=\"" );
+      if ( test[ i ].indexOf( "\")" ) < 0 ) {
+        return null;
+      }
+      String tagValue = test[ i ].substring( 0, test[ i ].indexOf( "\")" ) );
+      tags.add( tagValue );
+      resBuffer.append( tagValue.replace( ".", "_" ) );
+      resBuffer.append( "\"></span>" );
+      resBuffer.append( test[ i ].substring( test[ i ].indexOf( "\")" ) + 2 ) );
+    }
+    return resBuffer.toString();
+  }
+}
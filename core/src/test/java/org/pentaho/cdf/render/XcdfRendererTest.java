@@ -37,6 +37,7 @@ public class XcdfRendererTest extends TestCase {
   @Before
   public void setUp() {
     xcdfRenderer = spy( new XcdfRenderer() );
+    XcdfRenderer.clearCache();
   }
 
   @Test
@@ -157,4 +158,55 @@ public class XcdfRendererTest extends TestCase {
     verify( userContentAccess, times( 2 ) ).fileExists( dashboardPath );
     verify( userContentAccess, times( 1 ) ).hasAccess( dashboardPath, FileAccess.EXECUTE );
   }
+
+  @Test
+  public void testDetermineDashboardCached() throws Exception {
+    String dashboardPath = "/public/admin/myDash.xcdf";
+
+    IBasicFile file = mock( IBasicFile.class );
+    Node simpleNode = mock( Node.class );
+
+    IUserContentAccess userContentAccess = mock( IUserContentAccess.class );
+    doReturn( true ).when( userContentAccess ).fileExists( dashboardPath );
+    doReturn( true ).when( userContentAccess ).hasAccess( dashboardPath, FileAccess.EXECUTE );
+    doReturn( 1L ).when( userContentAccess ).getLastModified( dashboardPath );
+    doReturn( file ).when( userContentAccess ).fetchFile( dashboardPath );
+    doReturn( userContentAccess ).when( xcdfRenderer ).getUserContentAccess( null );
+
+    Document doc = mock( Document.class );
+    doReturn( simpleNode ).when( doc ).selectSingleNode( NODE_STYLES );
+    doReturn( simpleNode ).when( doc ).selectSingleNode( NODE_REQUIRE );
+    doReturn( doc ).when( xcdfRenderer ).getDocument( file );
+    doReturn( "myStyle" ).when( xcdfRenderer ).getNodeText( NODE_STYLES, doc );
+    doReturn( "true" ).when( xcdfRenderer ).getNodeText( NODE_REQUIRE, doc, "false" );
+
+    assertTrue( xcdfRenderer.determineDashboard( dashboardPath, "mantle" ) );
+    assertEquals( "mantle", xcdfRenderer.getTemplate() );
+    assertEquals( "myStyle", xcdfRenderer.getStyle() );
+    assertNull( xcdfRenderer.getMessagesBaseFilename() );
+    assertTrue( xcdfRenderer.getIsRequire() );
+
+    XcdfRenderer other = spy( new XcdfRenderer() );
+    doReturn( userContentAccess ).when( other ).getUserContentAccess( null );
+    assertTrue( other.determineDashboard( dashboardPath, "clean" ) );
+    assertEquals( "clean", other.getTemplate() );
+    assertTrue( other.getIsRequire() );
+    // parsed once, access still checked on every call
+    verify( xcdfRenderer, times( 1 ) ).getDocument( file );
+    verify( other, never() ).getDocument( file );
+    verify( userContentAccess, times( 2 ) ).hasAccess( dashboardPath, FileAccess.EXECUTE );
+
+    // changed file
+    doReturn( 2L ).when( userContentAccess ).getLastModified( dashboardPath );
+    doReturn( false ).when( userContentAccess ).hasAccess( dashboardPath, FileAccess.EXECUTE );
+    try {
+      xcdfRenderer.determineDashboard( dashboardPath, "mantle" );
+      fail();
+    } catch ( InvalidCdfOperationException e ) {
+      // Expected
+    }
+    doReturn( true ).when( userContentAccess ).hasAccess( dashboardPath, FileAccess.EXECUTE );
+    assertTrue( xcdfRenderer.determineDashboard( dashboardPath, "mantle" ) );
+    verify( xcdfRenderer, times( 2 ) ).getDocument( file );
+  }
 }
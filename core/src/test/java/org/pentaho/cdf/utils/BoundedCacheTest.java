@@ -0,0 +1,50 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.utils;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class BoundedCacheTest extends TestCase {
+
+  @Test
+  public void testClearedWhenFull() {
+    BoundedCache<String, String> cache = new BoundedCache<String, String>( "Test", 2 );
+    cache.put( "a", "1" );
+    cache.put( "b", "2" );
+
+    // replacing a cached entry doesn't count toward the bound
+    cache.put( "b", "3" );
+    assertEquals( 2, cache.size() );
+    assertEquals( "3", cache.get( "b" ) );
+
+    cache.put( "c", "4" );
+    assertEquals( 1, cache.size() );
+    assertNull( cache.get( "a" ) );
+    assertEquals( "4", cache.get( "c" ) );
+  }
+
+  @Test
+  public void testPutIfAbsent() {
+    BoundedCache<String, String> cache = new BoundedCache<String, String>( "Test", 2 );
+    assertNull( cache.putIfAbsent( "a", "1" ) );
+    assertEquals( "1", cache.putIfAbsent( "a", "2" ) );
+    assertNull( cache.putIfAbsent( "b", "3" ) );
+    assertEquals( "1", cache.putIfAbsent( "a", "4" ) );
+    assertEquals( 2, cache.size() );
+
+    assertNull( cache.putIfAbsent( "c", "5" ) );
+    assertEquals( 1, cache.size() );
+  }
+}
@@ -0,0 +1,95 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.utils;
+
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Test;
+import pt.webdetails.cpf.repository.api.IReadAccess;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class FileResolutionCacheTest extends TestCase {
+
+  @After
+  public void tearDown() {
+    FileResolutionCache.setTtl( 0 );
+  }
+
+  @Test
+  public void testDisabled() {
+    IReadAccess reader = mock( IReadAccess.class );
+    doReturn( true ).when( reader ).fileExists( "template.html" );
+
+    assertTrue( FileResolutionCache.fileExists( reader, FileResolutionCache.PLUGIN_SYSTEM, "template.html" ) );
+    assertTrue( FileResolutionCache.fileExists( reader, FileResolutionCache.PLUGIN_SYSTEM, "template.html" ) );
+    verify( reader, times( 2 ) ).fileExists( "template.html" );
+  }
+
+  @Test
+  public void testCachesHitsAndMisses() {
+    FileResolutionCache.setTtl( 60000 );
+    IReadAccess reader = mock( IReadAccess.class );
+    doReturn( true ).when( reader ).fileExists( "template.html" );
+    doReturn( 1234L ).when( reader ).getLastModified( "template.html" );
+
+    for ( int i = 0; i < 3; i++ ) {
+      assertTrue( FileResolutionCache.fileExists( reader, FileResolutionCache.PLUGIN_SYSTEM, "template.html" ) );
+      assertFalse( FileResolutionCache.fileExists( reader, FileResolutionCache.PLUGIN_SYSTEM, "missing.html" ) );
+      assertEquals( 1234L,
+        FileResolutionCache.getLastModified( reader, FileResolutionCache.PLUGIN_SYSTEM, "template.html" ) );
+    }
+    verify( reader, times( 1 ) ).fileExists( "template.html" );
+    verify( reader, times( 1 ) ).fileExists( "missing.html" );
+    verify( reader, times( 1 ) ).getLastModified( "template.html" );
+
+    // cleared from CdfApi.clearCache
+    doReturn( true ).when( reader ).fileExists( "missing.html" );
+    FileResolutionCache.clear();
+    assertTrue( FileResolutionCache.fileExists( reader, FileResolutionCache.PLUGIN_SYSTEM, "missing.html" ) );
+  }
+
+  @Test
+  public void testCachesOtherLookups() {
+    FileResolutionCache.setTtl( 60000 );
+    final int[] count = { 0 };
+    FileResolutionCache.Lookup<String> lookup = new FileResolutionCache.Lookup<String>() {
+      @Override
+      public String lookup() {
+        count[ 0 ]++;
+        return "messages.properties:1";
+      }
+    };
+
+    assertEquals( "messages.properties:1",
+      FileResolutionCache.get( "version", FileResolutionCache.PLUGIN_SYSTEM, "/lang", lookup ) );
+    assertEquals( "messages.properties:1",
+      FileResolutionCache.get( "version", FileResolutionCache.PLUGIN_SYSTEM, "/lang", lookup ) );
+    assertEquals( 1, count[ 0 ] );
+  }
+
+  @Test
+  public void testExpires() throws Exception {
+    FileResolutionCache.setTtl( 1 );
+    IReadAccess reader = mock( IReadAccess.class );
+
+    assertFalse( FileResolutionCache.fileExists( reader, FileResolutionCache.PLUGIN_SYSTEM, "template.html" ) );
+    doReturn( true ).when( reader ).fileExists( "template.html" );
+    Thread.sleep( 10 );
+    assertTrue( FileResolutionCache.fileExists( reader, FileResolutionCache.PLUGIN_SYSTEM, "template.html" ) );
+  }
+}
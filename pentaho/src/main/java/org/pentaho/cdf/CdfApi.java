@@ -23,17 +23,24 @@ import org.pentaho.cdf.context.ContextEngine;
 import org.pentaho.cdf.embed.EmbeddedHeadersCallbackGenerator;
 import org.pentaho.cdf.embed.EmbeddedHeadersGenerator;
 import org.pentaho.cdf.environment.CdfEngine;
+import org.pentaho.cdf.environment.ICdfEnvironment;
+import org.pentaho.cdf.environment.PentahoCdfEnvironment;
 import org.pentaho.cdf.export.Export;
 import org.pentaho.cdf.export.ExportCSV;
 import org.pentaho.cdf.export.ExportExcel;
 import org.pentaho.cdf.export.IExport;
+import org.pentaho.cdf.render.CdfHtmlRenderer;
+import org.pentaho.cdf.render.XcdfRenderer;
+import org.pentaho.cdf.util.EntityTags;
 import org.pentaho.cdf.util.Parameter;
+import org.pentaho.cdf.utils.FileResolutionCache;
 import org.pentaho.cdf.xactions.ActionEngine;
 import org.pentaho.platform.api.engine.IPluginResourceLoader;
 import org.pentaho.platform.engine.core.system.PentahoRequestContextHolder;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.util.web.MimeHelper;
+import org.pentaho.platform.web.http.api.resources.utils.SystemUtils;
 import pt.webdetails.cpf.Util;
 import pt.webdetails.cpf.repository.api.IReadAccess;
 import pt.webdetails.cpf.utils.CharsetHelper;
@@ -60,6 +67,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_FORM_URLENCODED;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
@@ -79,6 +87,8 @@ public class CdfApi {
   private static final String HTTPS = "https";
   private static final int DEFAULT_HTTP_PORT = 80;
   private static final int DEFAULT_HTTPS_PORT = 443;
+  // context values that change on every request, only bucketed into its entity tag
+  private static final Pattern SERVER_DATES = Pattern.compile( "(\"(?:serverLocalDate|serverUTCDate)\":)\\s*-?\\d+" );
 
   @GET
   @Path( "/ping" )
@@ -157,22 +167,68 @@ public class CdfApi {
   @GET
   @Path( "/getContext" )
   @Consumes( { APPLICATION_XML, APPLICATION_JSON, APPLICATION_FORM_URLENCODED } )
-  public String getContext( @QueryParam( Parameter.PATH ) @DefaultValue( StringUtils.EMPTY ) String path,
-                            @QueryParam( Parameter.ACTION ) @DefaultValue( StringUtils.EMPTY ) String action,
-                            @QueryParam( Parameter.VIEW ) @DefaultValue( StringUtils.EMPTY ) String view,
-                            @Context HttpServletRequest servletRequest ) {
+  public Response getContext( @QueryParam( Parameter.PATH ) @DefaultValue( StringUtils.EMPTY ) String path,
+                              @QueryParam( Parameter.ACTION ) @DefaultValue( StringUtils.EMPTY ) String action,
+                              @QueryParam( Parameter.VIEW ) @DefaultValue( StringUtils.EMPTY ) String view,
+                              @Context HttpServletRequest servletRequest ) {
     int inactiveInterval = servletRequest.getSession().getMaxInactiveInterval();
-    return ContextEngine.getInstance()
-      .getContext( path, Parameter.asHashMap( servletRequest ), inactiveInterval );
+    HashMap<String, String> parameters = Parameter.asHashMap( servletRequest );
+    ContextEngine contextEngine = ContextEngine.getInstance();
+    if ( !isETags() ) {
+      return Response.ok( contextEngine.getContext( path, parameters, inactiveInterval ) ).build();
+    }
+
+    String ifNoneMatch = servletRequest.getHeader( EntityTags.IF_NONE_MATCH );
+    String context = null;
+    String etag;
+    try {
+      String inputs = contextEngine.getContextInputs( path, parameters, inactiveInterval );
+      if ( inputs == null ) {
+        // auto-include query results, tell their changes from the generated context
+        context = contextEngine.getContext( path, parameters, inactiveInterval );
+        inputs = SERVER_DATES.matcher( context ).replaceAll( "$1" );
+      }
+      etag = EntityTags.fromInputs( inputs + '|' + EntityTags.getServerDatesInput() );
+    } catch ( Exception e ) {
+      logger.error( "Error computing context entity tag.", e );
+      return Response.ok( context != null ? context : contextEngine.getContext( path, parameters, inactiveInterval ) )
+        .build();
+    }
+
+    if ( EntityTags.matches( ifNoneMatch, etag ) ) {
+      return Response.notModified().header( EntityTags.ETAG, etag ).header( "Cache-Control", EntityTags.CACHE_CONTROL )
+        .build();
+    }
+    if ( context == null ) {
+      context = contextEngine.getContext( path, parameters, inactiveInterval );
+    }
+    return Response.ok( context ).header( EntityTags.ETAG, etag ).header( "Cache-Control", EntityTags.CACHE_CONTROL )
+      .build();
   }
 
   @GET
   @Path( "/clearCache" )
   public Response clearCache( ) {
     ContextEngine.clearCache();
+    // the merged message files were deleted
+    CdfHtmlRenderer.clearMessagesCache();
+    CdfHtmlRenderer.clearTemplateCache();
+    XcdfRenderer.clearCache();
+    CdfHtmlRenderer.clearRenderCache();
+    FileResolutionCache.clear();
     return Response.ok( "Cache Cleared" ).build();
   }
 
+  @GET
+  @Path( "/clearRenderCache" )
+  public Response clearRenderCache() {
+    if ( !isAdministrator() ) {
+      return Response.status( Response.Status.FORBIDDEN ).build();
+    }
+    CdfHtmlRenderer.clearRenderCache();
+    return Response.ok( "Render Cache Cleared" ).build();
+  }
+
   @POST
   @Path( "/export" )
   @Consumes( { APPLICATION_XML, APPLICATION_JSON, APPLICATION_FORM_URLENCODED } )
@@ -486,4 +542,13 @@ public class CdfApi {
         showHiddenFiles,
         mode ).toString( 2 );
   }
+
+  protected boolean isETags() {
+    ICdfEnvironment environment = CdfEngine.getEnvironment();
+    return environment instanceof PentahoCdfEnvironment && ( (PentahoCdfEnvironment) environment ).isETags();
+  }
+
+  protected boolean isAdministrator() {
+    return SystemUtils.canAdminister();
+  }
 }
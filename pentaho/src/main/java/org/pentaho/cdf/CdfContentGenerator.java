@@ -20,6 +20,7 @@ import java.security.InvalidParameterException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.UUID;
 
 import javax.servlet.http.HttpServletRequest;
@@ -34,8 +35,11 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.cdf.context.ContextEngine;
 import org.pentaho.cdf.environment.CdfEngine;
+import org.pentaho.cdf.environment.ICdfEnvironment;
+import org.pentaho.cdf.environment.PentahoCdfEnvironment;
 import org.pentaho.cdf.render.CdfHtmlRenderer;
 import org.pentaho.cdf.render.XcdfRenderer;
+import org.pentaho.cdf.util.EntityTags;
 import org.pentaho.cdf.util.Parameter;
 import org.pentaho.platform.api.engine.IParameterProvider;
 import org.pentaho.platform.api.engine.IPentahoSession;
@@ -153,8 +157,7 @@ public class CdfContentGenerator extends SimpleContentGenerator {
 
       XcdfRenderer renderer = new XcdfRenderer();
 
-      boolean success = renderer.determineDashboardTemplating( xcdfFilePath, defaultTemplate )
-          && renderer.determineRequireDashboard( xcdfFilePath );
+      boolean success = renderer.determineDashboard( xcdfFilePath, defaultTemplate );
 
       if ( success ) {
 
@@ -180,7 +183,9 @@ public class CdfContentGenerator extends SimpleContentGenerator {
               loadTheme );
         }
 
-        setResponseHeaders( MimeTypes.HTML, 0, null );
+        if ( !hasETag() ) {
+          setResponseHeaders( MimeTypes.HTML, 0, null );
+        }
 
       } else {
         out.write( "Unable to render dashboard".getBytes( CharsetHelper.getEncoding() ) ); //$NON-NLS-1$ //$NON-NLS-2$
@@ -224,6 +229,24 @@ public class CdfContentGenerator extends SimpleContentGenerator {
     }
 
     int inactiveInterval = request.getSession().getMaxInactiveInterval();
+    if ( isETags() && isNotModified( renderer, templatePath, defaultTemplate, dashboardsMessagesBaseFilename, paramMap,
+        inactiveInterval, isRequire, loadTheme ) ) {
+      return;
+    }
+
+    if ( !isRequire ) {
+      addPreloadHeaders( paramMap );
+    }
+    if ( isEarlyFlush() ) {
+      // headers can't be set once the head is flushed
+      if ( !hasETag() ) {
+        setResponseHeaders( MimeTypes.HTML, 0, null );
+      }
+      renderer.setEarlyFlush( true );
+    }
+    renderer.setStageTimeout( getRenderStageTimeout() );
+    renderer.setRenderCache( isRenderCache() );
+
     renderer
         .execute(
           out,
@@ -237,6 +260,106 @@ public class CdfContentGenerator extends SimpleContentGenerator {
           loadTheme );
   }
 
+  /**
+   * Lets the browser fetch the dashboard scripts and styles while the page is being rendered.
+   */
+  protected void addPreloadHeaders( HashMap<String, String> paramMap ) {
+    ICdfEnvironment environment = CdfEngine.getEnvironment();
+    if ( !( environment instanceof PentahoCdfEnvironment )
+        || !( (PentahoCdfEnvironment) environment ).isPreloadHeaders() ) {
+      return;
+    }
+    HttpServletResponse response = getResponse();
+    if ( response == null || response.isCommitted() ) {
+      return;
+    }
+    try {
+      List<String> links = CdfHtmlRenderer.getPreloadLinks( paramMap );
+      for ( String link : links ) {
+        response.addHeader( "Link", link );
+      }
+      if ( !links.isEmpty() && ( (PentahoCdfEnvironment) environment ).isEarlyHints() ) {
+        sendEarlyHints( response );
+      }
+    } catch ( Exception e ) {
+      logger.error( "Error adding preload headers.", e );
+    }
+  }
+
+  /**
+   * Sets the dashboard page entity tag, answering with 304 Not Modified when the browser already has the page.
+   *
+   * @return if the page doesn't need to be rendered
+   */
+  protected boolean isNotModified( CdfHtmlRenderer renderer, String templatePath, String style,
+                                   String dashboardsMessagesBaseFilename, HashMap<String, String> paramMap,
+                                   int inactiveInterval, boolean isRequire, boolean loadTheme ) {
+    HttpServletResponse response = getResponse();
+    if ( response == null || response.isCommitted() ) {
+      return false;
+    }
+    String etag;
+    try {
+      etag = renderer.getETag( templatePath, style, dashboardsMessagesBaseFilename, paramMap, userSession.getName(),
+          inactiveInterval, isRequire, loadTheme );
+    } catch ( Exception e ) {
+      logger.error( "Error computing dashboard entity tag.", e );
+      return false;
+    }
+    if ( etag == null ) {
+      return false;
+    }
+    setResponseHeaders( MimeTypes.HTML, 0, null );
+    response.setHeader( EntityTags.ETAG, etag );
+    response.setHeader( "Cache-Control", EntityTags.CACHE_CONTROL );
+    if ( EntityTags.matches( getRequest().getHeader( EntityTags.IF_NONE_MATCH ), etag ) ) {
+      response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+      return true;
+    }
+    return false;
+  }
+
+  // setting the response headers again would drop the entity tag caching headers
+  private boolean hasETag() {
+    HttpServletResponse response = getResponse();
+    return response != null && response.containsHeader( EntityTags.ETAG );
+  }
+
+  private boolean isETags() {
+    ICdfEnvironment environment = CdfEngine.getEnvironment();
+    return environment instanceof PentahoCdfEnvironment && ( (PentahoCdfEnvironment) environment ).isETags();
+  }
+
+  private boolean isEarlyFlush() {
+    ICdfEnvironment environment = CdfEngine.getEnvironment();
+    return environment instanceof PentahoCdfEnvironment && ( (PentahoCdfEnvironment) environment ).isEarlyFlush();
+  }
+
+  private boolean isRenderCache() {
+    ICdfEnvironment environment = CdfEngine.getEnvironment();
+    return environment instanceof PentahoCdfEnvironment && ( (PentahoCdfEnvironment) environment ).isRenderCache();
+  }
+
+  private long getRenderStageTimeout() {
+    ICdfEnvironment environment = CdfEngine.getEnvironment();
+    return environment instanceof PentahoCdfEnvironment
+        ? ( (PentahoCdfEnvironment) environment ).getRenderStageTimeout() : 0;
+  }
+
+  /**
+   * Sends the headers set so far as a 103 Early Hints response, if the servlet container supports it.
+   */
+  private void sendEarlyHints( HttpServletResponse response ) {
+    try {
+      // servlet 6.1
+      response.getClass().getMethod( "sendEarlyHints" ).invoke( response );
+    } catch ( NoSuchMethodException e ) {
+      logger.debug( "Servlet container does not support early hints." );
+    } catch ( Exception e ) {
+      logger.warn( "Unable to send early hints.", e );
+    }
+  }
+
   public String getPluginName() {
     return PLUGIN_ID;
   }
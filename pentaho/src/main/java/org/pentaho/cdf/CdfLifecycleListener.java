@@ -16,6 +16,7 @@ package org.pentaho.cdf;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.cdf.environment.CdfEngine;
+import org.pentaho.cdf.environment.PentahoCdfEnvironment;
 import org.pentaho.platform.api.engine.PluginLifecycleException;
 
 import pt.webdetails.cpf.PluginEnvironment;
@@ -42,7 +43,10 @@ public class CdfLifecycleListener extends SimpleLifeCycleListener {
   }
   
   @Override
-  public void unLoaded() throws PluginLifecycleException {  
+  public void unLoaded() throws PluginLifecycleException {
+    if ( CdfEngine.getEnvironment() instanceof PentahoCdfEnvironment ) {
+      ( (PentahoCdfEnvironment) CdfEngine.getEnvironment() ).shutdown();
+    }
   }
   
   
@@ -16,6 +16,7 @@ package org.pentaho.cdf;
 import static javax.ws.rs.core.MediaType.WILDCARD;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.GET;
@@ -25,16 +26,35 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import org.apache.commons.lang.StringUtils;
 import org.pentaho.cdf.environment.CdfEngine;
+import org.pentaho.cdf.environment.ICdfEnvironment;
+import org.pentaho.cdf.environment.PentahoCdfEnvironment;
+import org.pentaho.cdf.packager.PrecompressedBundles;
+import org.pentaho.cdf.packager.StaticDependenciesPackage;
+import org.pentaho.cdf.utils.BoundedCache;
 import org.pentaho.cdf.utils.CorsUtil;
 import org.pentaho.platform.api.engine.IPluginManager;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.util.web.MimeHelper;
 import org.pentaho.platform.web.http.api.resources.PluginResource;
+import pt.webdetails.cpf.repository.api.IReadAccess;
+import pt.webdetails.cpf.utils.PluginIOUtils;
 
 @Path( "/pentaho-cdf/api/resources" )
 public class ResourcesApi {
 
+  // dependency urls carry their version in this parameter
+  private static final String VERSION_PARAMETER = "v";
+  private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+  // upper bound for files whose content hash is kept in memory
+  private static final int MAX_CONTENT_VERSIONS = 4096;
+
+  // file path -> content hash, for the modification time it was computed at
+  private static final BoundedCache<String, ContentVersion> contentVersions =
+      new BoundedCache<String, ContentVersion>( "Content versions", MAX_CONTENT_VERSIONS );
+
   @GET
   @Path( "/{path: [^?]+ }" )
   @Produces( { WILDCARD } )
@@ -42,15 +62,27 @@ public class ResourcesApi {
                                      @Context HttpServletResponse response )
     throws IOException {
 
-    String pluginId = CdfEngine.getEnvironment().getPluginId();
-
-    IPluginManager pluginManager = PentahoSystem.get( IPluginManager.class );
-
-    if ( !StringUtils.isEmpty( path ) && pluginManager.isPublic( pluginId, path ) ) {
+    if ( !StringUtils.isEmpty( path ) && isPublicResource( path ) ) {
 
-      Response readFileResponse = new PluginResource( response ).readFile( pluginId, path );
-      CorsUtil.getInstance().setCorsHeaders( request, response );
+      boolean compressible = isCompressible( path );
+      Response readFileResponse = compressible && acceptsGzip( request ) ? readPrecompressedFile( path ) : null;
+      if ( readFileResponse == null ) {
+        readFileResponse = readPluginFile( path, response );
+      } else {
+        // same caching PluginResource applies to the uncompressed file
+        String maxAge = getMaxAge();
+        if ( !StringUtils.isEmpty( maxAge ) ) {
+          response.setHeader( "Cache-Control", "max-age=" + maxAge.trim() );
+        }
+      }
+      setCorsHeaders( request, response );
       if ( readFileResponse.getStatus() != Status.NOT_FOUND.getStatusCode() ) {
+        if ( compressible ) {
+          response.setHeader( "Vary", "Accept-Encoding" );
+        }
+        if ( isImmutable( request, path ) ) {
+          response.setHeader( "Cache-Control", IMMUTABLE_CACHE_CONTROL );
+        }
         return readFileResponse;
       }
     }
@@ -58,4 +90,140 @@ public class ResourcesApi {
     return Response.status( Status.NOT_FOUND ).build();
   }
 
+  /**
+   * @return the gzip sibling of the file, null if there is no up to date one
+   */
+  protected Response readPrecompressedFile( String path ) {
+    final IReadAccess systemAccess = getSystemReader();
+    final String compressedPath = PrecompressedBundles.getPrecompressed( systemAccess, path );
+    if ( compressedPath == null ) {
+      return null;
+    }
+    StreamingOutput stream = new StreamingOutput() {
+      @Override
+      public void write( OutputStream outputStream ) throws IOException {
+        PluginIOUtils.writeOutAndFlush( outputStream, systemAccess.getFileInputStream( compressedPath ) );
+      }
+    };
+    return Response.ok( stream, MimeHelper.getMimeTypeFromFileName( path ) )
+      .header( "Content-Encoding", "gzip" ).build();
+  }
+
+  private static boolean isCompressible( String path ) {
+    return path.endsWith( ".js" ) || path.endsWith( ".css" );
+  }
+
+  protected boolean isPublicResource( String path ) {
+    String pluginId = CdfEngine.getEnvironment().getPluginId();
+    return PentahoSystem.get( IPluginManager.class ).isPublic( pluginId, path );
+  }
+
+  protected Response readPluginFile( String path, HttpServletResponse response ) {
+    return new PluginResource( response ).readFile( CdfEngine.getEnvironment().getPluginId(), path );
+  }
+
+  protected String getMaxAge() {
+    return CdfEngine.getEnvironment().getResourceLoader().getPluginSetting( ResourcesApi.class,
+      CdfConstants.PLUGIN_SETTINGS_MAX_AGE );
+  }
+
+  protected void setCorsHeaders( HttpServletRequest request, HttpServletResponse response ) {
+    CorsUtil.getInstance().setCorsHeaders( request, response );
+  }
+
+  static boolean acceptsGzip( HttpServletRequest request ) {
+    return acceptsGzip( request.getHeader( "Accept-Encoding" ) );
+  }
+
+  /**
+   * @param acceptEncoding Accept-Encoding header value
+   * @return if gzip (or x-gzip) is listed, or only matched by *, with a quality above 0
+   */
+  static boolean acceptsGzip( String acceptEncoding ) {
+    if ( StringUtils.isBlank( acceptEncoding ) ) {
+      return false;
+    }
+    Boolean gzip = null;
+    boolean any = false;
+    for ( String coding : acceptEncoding.split( "," ) ) {
+      String[] parts = coding.split( ";" );
+      String name = parts[ 0 ].trim().toLowerCase();
+      boolean accepted = getQuality( parts ) > 0;
+      if ( name.equals( "gzip" ) || name.equals( "x-gzip" ) ) {
+        gzip = gzip == Boolean.TRUE || accepted;
+      } else if ( name.equals( "*" ) ) {
+        any = accepted;
+      }
+    }
+    return gzip != null ? gzip : any;
+  }
+
+  private static double getQuality( String[] codingParts ) {
+    for ( int i = 1; i < codingParts.length; i++ ) {
+      String parameter = codingParts[ i ].replace( " ", "" ).toLowerCase();
+      if ( parameter.startsWith( "q=" ) ) {
+        try {
+          return Double.parseDouble( parameter.substring( 2 ) );
+        } catch ( NumberFormatException e ) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Build time bundles are named after the hash of their contents, so their urls never change contents. Neither do
+   * versioned urls of content hashed dependencies and runtime minified bundles, as long as the version is the hash of
+   * the current contents. Any other version, e.g. a modification time or a stale hash, gets the usual caching.
+   */
+  protected boolean isImmutable( HttpServletRequest request, String path ) {
+    if ( isPrebuiltBundle( path ) ) {
+      return true;
+    }
+    String version = request.getParameter( VERSION_PARAMETER );
+    if ( StringUtils.isEmpty( version ) || !isContentHashVersioning() ) {
+      return false;
+    }
+    return version.equals( getContentVersion( path ) );
+  }
+
+  protected boolean isPrebuiltBundle( String path ) {
+    return CdfEngine.getEnvironment().getCdfHeadersProvider().isPrebuiltBundle( path );
+  }
+
+  protected boolean isContentHashVersioning() {
+    ICdfEnvironment environment = CdfEngine.getEnvironment();
+    return environment instanceof PentahoCdfEnvironment
+        && ( (PentahoCdfEnvironment) environment ).isContentHashVersioning();
+  }
+
+  /**
+   * @return the content hash the file is versioned with, hashed again only when the file changes
+   */
+  protected String getContentVersion( String path ) {
+    IReadAccess systemAccess = getSystemReader();
+    long lastModified = systemAccess.getLastModified( path );
+    ContentVersion cached = contentVersions.get( path );
+    if ( cached != null && cached.lastModified == lastModified ) {
+      return cached.version;
+    }
+    String version = StaticDependenciesPackage.getContentVersion( systemAccess, path );
+    contentVersions.put( path, new ContentVersion( lastModified, version ) );
+    return version;
+  }
+
+  protected IReadAccess getSystemReader() {
+    return CdfEngine.getPluginSystemReader( null );
+  }
+
+  private static class ContentVersion {
+    private final long lastModified;
+    private final String version;
+
+    private ContentVersion( long lastModified, String version ) {
+      this.lastModified = lastModified;
+      this.version = version;
+    }
+  }
 }
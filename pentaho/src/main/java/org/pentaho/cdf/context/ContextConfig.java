@@ -0,0 +1,140 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.Document;
+import org.dom4j.Node;
+import org.pentaho.cdf.context.autoinclude.AutoInclude;
+import org.pentaho.cdf.utils.BoundedCache;
+
+import pt.webdetails.cpf.utils.XmlDom4JUtils;
+
+/**
+ * dashboardContext.xml as read at a given version, with the parts needed on every request compiled: session
+ * attributes and auto-includes.
+ */
+public class ContextConfig {
+
+  // upper bound for dashboards whose auto-includes are kept
+  private static final int MAX_INCLUDED_AUTO_INCLUDES = 4096;
+
+  private final boolean system;
+  private final long lastModified;
+  private final Document document;
+  // context key -> session attribute name
+  private final Map<String, String> sessionAttributes;
+  private final List<AutoInclude> autoIncludes;
+  // dashboard path -> auto-includes that apply to it
+  private final BoundedCache<String, List<AutoInclude>> includedAutoIncludes =
+      new BoundedCache<String, List<AutoInclude>>( "Included auto-includes", MAX_INCLUDED_AUTO_INCLUDES );
+
+  /**
+   * @param autoIncludes auto-includes built from the document
+   */
+  public ContextConfig( boolean system, long lastModified, Document document, List<AutoInclude> autoIncludes ) {
+    this.system = system;
+    this.lastModified = lastModified;
+    this.document = document;
+    this.sessionAttributes = Collections.unmodifiableMap( readSessionAttributes( document ) );
+    this.autoIncludes = Collections.unmodifiableList( new ArrayList<AutoInclude>( autoIncludes ) );
+  }
+
+  /**
+   * @return if the file was read from the plugin system folder instead of the plugin repository folder
+   */
+  public boolean isSystem() {
+    return system;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @return the parsed file, shared between requests and not to be modified
+   */
+  public Document getDocument() {
+    return document;
+  }
+
+  /**
+   * @return session attribute names, by the key they are put under in the context
+   */
+  public Map<String, String> getSessionAttributes() {
+    return sessionAttributes;
+  }
+
+  /**
+   * @return every auto-include in the configuration
+   */
+  public List<AutoInclude> getAutoIncludes() {
+    return autoIncludes;
+  }
+
+  /**
+   * @param dashboardPath dashboard the context is built for
+   * @return the auto-includes that apply to the dashboard, matched once per dashboard
+   */
+  public List<AutoInclude> getIncludedAutoIncludes( String dashboardPath ) {
+    List<AutoInclude> included = dashboardPath != null ? includedAutoIncludes.get( dashboardPath ) : null;
+    if ( included != null ) {
+      return included;
+    }
+    included = getIncludedAutoIncludes( autoIncludes, dashboardPath );
+    if ( dashboardPath == null ) {
+      return included;
+    }
+    includedAutoIncludes.put( dashboardPath, included );
+    return included;
+  }
+
+  /**
+   * @return the auto-includes that apply to the dashboard
+   */
+  public static List<AutoInclude> getIncludedAutoIncludes( List<AutoInclude> autoIncludes, String dashboardPath ) {
+    List<AutoInclude> included = new ArrayList<AutoInclude>();
+    for ( AutoInclude autoInclude : autoIncludes ) {
+      if ( autoInclude.canInclude( dashboardPath ) ) {
+        included.add( autoInclude );
+      }
+    }
+    return Collections.unmodifiableList( included );
+  }
+
+  /**
+   * @return session attribute names in the configuration, by the key they are put under in the context
+   */
+  public static Map<String, String> readSessionAttributes( Document config ) {
+    Map<String, String> sessionAttributes = new LinkedHashMap<String, String>();
+
+    @SuppressWarnings( "unchecked" )
+    List<Node> attributes = config.selectNodes( "//sessionattributes/attribute" );
+    for ( Node attribute : attributes ) {
+
+      String name = attribute.getText();
+      String key = XmlDom4JUtils.getNodeText( "@name", attribute );
+      if ( key == null ) {
+        key = name;
+      }
+      sessionAttributes.put( key, name );
+    }
+    return sessionAttributes;
+  }
+}
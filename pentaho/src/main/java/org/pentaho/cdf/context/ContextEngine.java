@@ -18,14 +18,15 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.Document;
-import org.dom4j.Node;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.pentaho.cdf.CdfConstants;
 import org.pentaho.cdf.context.autoinclude.AutoInclude;
+import org.pentaho.cdf.context.autoinclude.AutoIncludeCache;
 import org.pentaho.cdf.environment.CdfEngine;
 import org.pentaho.cdf.storage.StorageEngine;
 import org.pentaho.cdf.util.Parameter;
+import org.pentaho.cdf.utils.FileResolutionCache;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.security.SecurityParameterProvider;
@@ -43,12 +44,17 @@ import pt.webdetails.cpf.utils.XmlDom4JUtils;
 import java.io.File;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 public class ContextEngine {
 
@@ -61,8 +67,8 @@ public class ContextEngine {
   private static ContextEngine instance;
   private static String CONFIG_FILE = "dashboardContext.xml";
 
-  private static List<AutoInclude> autoIncludes;
-  private static Object autoIncludesLock = new Object();
+  // last read dashboardContext.xml, along with its auto-includes
+  private static volatile ContextConfig contextConfig;
 
   public ContextEngine() {
     legacyDashboardContext = Boolean.valueOf(
@@ -83,10 +89,9 @@ public class ContextEngine {
 
   public static void clearCache() {
     // TODO figure out what to clear
-    synchronized ( autoIncludesLock ) {
-      autoIncludes = null;
-      logger.debug( "auto-includes cleared." );
-    }
+    contextConfig = null;
+    logger.debug( "auto-includes cleared." );
+    AutoIncludeCache.clear();
 
     if ( CdfEngine.getPluginSystemReader( null ).fileExists( MessageBundlesHelper.BASE_CACHE_DIR ) ) {
 
@@ -110,7 +115,25 @@ public class ContextEngine {
 
   public void generateContext( final OutputStream out, HashMap<String, String> paramMap, int inactiveInterval )
     throws Exception {
+    generateContext( out, paramMap, inactiveInterval, true );
+  }
+
+  /**
+   * @param autoIncludes if the auto-include CDA queries should be run, their results are left empty otherwise
+   */
+  public void generateContext( final OutputStream out, HashMap<String, String> paramMap, int inactiveInterval,
+                               boolean autoIncludes ) throws Exception {
+
+    String dashboardContext = getContext( getDashboardPath( paramMap ), paramMap, inactiveInterval, autoIncludes );
+
+    if ( StringUtils.isEmpty( dashboardContext ) ) {
+      logger.error( "empty dashboardContext" );
+    }
+
+    PluginIOUtils.writeOut( out, dashboardContext );
+  }
 
+  private String getDashboardPath( Map<String, String> paramMap ) {
     String solution = StringUtils.defaultIfEmpty( paramMap.get( Parameter.SOLUTION ), StringUtils.EMPTY );
     String path = StringUtils.defaultIfEmpty( paramMap.get( Parameter.PATH ), StringUtils.EMPTY );
     String file = StringUtils.defaultIfEmpty( paramMap.get( Parameter.FILE ), StringUtils.EMPTY );
@@ -121,14 +144,44 @@ public class ContextEngine {
     if ( RepositoryHelper.getExtension( action ).equals( "xcdf" ) ) {
       fullPath = RepositoryHelper.joinPaths( fullPath, action );
     }
+    return fullPath;
+  }
 
-    String dashboardContext = getContext( fullPath, paramMap, inactiveInterval );
+  /**
+   * Everything the context generated for these parameters depends on, apart from the server dates.
+   *
+   * @return null if the context includes auto-include query results, whose changes can't be told without running
+   * the queries
+   */
+  public String getContextInputs( HashMap<String, String> paramMap, int inactiveInterval ) {
+    return getContextInputs( getDashboardPath( paramMap ), paramMap, inactiveInterval );
+  }
 
-    if ( StringUtils.isEmpty( dashboardContext ) ) {
-      logger.error( "empty dashboardContext" );
+  /**
+   * @param fullPath dashboard path the context is built for
+   * @see #getContextInputs(HashMap, int)
+   */
+  public String getContextInputs( String fullPath, Map<String, String> paramMap, int inactiveInterval ) {
+    Document config = getConfigFile();
+    if ( !getAutoIncludeCdaPaths( fullPath, config ).isEmpty() ) {
+      return null;
     }
-
-    PluginIOUtils.writeOut( out, dashboardContext );
+    IPentahoSession session = getUserSession();
+    JSONObject inputs = new JSONObject();
+    try {
+      inputs.put( "path", fullPath );
+      inputs.put( "user", session.getName() );
+      inputs.put( "sessionTimeout", session.isAuthenticated() ? inactiveInterval : -1 );
+      inputs.put( "locale", getLocale() );
+      inputs.put( "roles", getSecurityParams().getParameter( "principalRoles" ) );
+      inputs.put( "sessionAttributes", processSessionAttributes( config ) );
+      inputs.put( "legacy", getLegacyStructure() );
+      inputs.put( "params", new TreeMap<String, String>( paramMap ) );
+    } catch ( JSONException e ) {
+      logger.error( "Error reading context inputs", e );
+      return null;
+    }
+    return inputs.toString();
   }
 
   protected IPentahoSession getUserSession() {
@@ -136,22 +189,40 @@ public class ContextEngine {
   }
 
   public String getContext( String path,  Map<String, String> parameters, int inactiveInterval ) {
+    return getContext( path, parameters, inactiveInterval, true );
+  }
+
+  private String getContext( String path,  Map<String, String> parameters, int inactiveInterval,
+                             boolean autoIncludes ) {
     String username = getUserSession().getName();
 
     try {
-      return buildContextScript( buildContext( path, username, parameters, inactiveInterval ) );
+      return buildContextScript( buildContext( path, username, parameters, inactiveInterval, autoIncludes ) );
     } catch ( JSONException e ) {
       return "";
     }
   }
 
   public JSONObject buildContext( String path, String username, Map<String, String> parameters, int inactiveInterval ) {
+    return buildContext( path, username, parameters, inactiveInterval, true );
+  }
+
+  /**
+   * @param autoIncludes if the auto-include CDA queries should be run, their results are left empty otherwise
+   */
+  public JSONObject buildContext( String path, String username, Map<String, String> parameters, int inactiveInterval,
+                                  boolean autoIncludes ) {
     JSONObject contextObj = new JSONObject();
 
     Document config = getConfigFile();
 
     try {
-      buildContextConfig( contextObj, path, config );
+      if ( autoIncludes ) {
+        buildContextConfig( contextObj, path, config );
+      } else {
+        contextObj.put( "queryData", new JSONObject() );
+        contextObj.put( "sessionAttributes", processSessionAttributes( config ) );
+      }
       buildContextSessionTimeout( contextObj, inactiveInterval );
       buildContextDates( contextObj );
 
@@ -324,18 +395,13 @@ public class ContextEngine {
 
     JSONObject result = new JSONObject();
 
-    @SuppressWarnings( "unchecked" )
-    List<Node> attributes = config.selectNodes( "//sessionattributes/attribute" );
-    for ( Node attribute : attributes ) {
-
-      String name = attribute.getText();
-      String key = XmlDom4JUtils.getNodeText( "@name", attribute );
-      if ( key == null ) {
-        key = name;
-      }
-
+    // compiled along with the configuration snapshot
+    ContextConfig snapshot = contextConfig;
+    Map<String, String> attributes = snapshot != null && snapshot.getDocument() == config
+        ? snapshot.getSessionAttributes() : ContextConfig.readSessionAttributes( config );
+    for ( Map.Entry<String, String> attribute : attributes.entrySet() ) {
       try {
-        result.put( key, getUserSession().getAttribute( name ) );
+        result.put( attribute.getKey(), getUserSession().getAttribute( attribute.getValue() ) );
       } catch ( JSONException e ) {
         logger.error( e );
       }
@@ -367,47 +433,152 @@ public class ContextEngine {
 
     /* Bail out if cdf/includes folder does not exists */
     IReadAccess autoIncludesFolder = getUserContentAccess( null );
-    if ( !autoIncludesFolder.fileExists( getPluginRepositoryDir() + CdfConstants.INCLUDES_DIR ) ) {
+    if ( !FileResolutionCache.fileExists( autoIncludesFolder, FileResolutionCache.USER_CONTENT,
+        getPluginRepositoryDir() + CdfConstants.INCLUDES_DIR ) ) {
       return queries;
     }
 
-    List<AutoInclude> autoIncludes = getAutoIncludes( config );
-    for ( AutoInclude autoInclude : autoIncludes ) {
-      if ( autoInclude.canInclude( dashboardPath ) ) {
-        String cdaPath = autoInclude.getCdaPath();
-        addCdaQuery( queries, cdaPath );
+    // queries of the uncached files run together, against one timeout for the dashboard
+    List<String> cdaPaths = new ArrayList<String>();
+    for ( AutoInclude autoInclude : getIncludedAutoIncludes( dashboardPath, config ) ) {
+      if ( autoInclude.getCacheTtl() > 0 ) {
+        addCachedCdaQuery( queries, autoInclude );
+      } else {
+        cdaPaths.add( autoInclude.getCdaPath() );
       }
     }
+    if ( !cdaPaths.isEmpty() ) {
+      addCdaQueries( queries, cdaPaths );
+    }
     return queries;
   }
 
-  protected List<AutoInclude> getAutoIncludes( Document config ) {
-    synchronized ( autoIncludesLock ) {
-      if ( autoIncludes == null ) {
-        IReadAccess cdaRoot = getUserContentAccess( getPluginRepositoryDir() + CdfConstants.INCLUDES_DIR );
-        autoIncludes = buildAutoIncludeList( config, cdaRoot );
+  /**
+   * Adds the query results of a cda file, shared with other requests in the same scope for the auto-include's ttl.
+   */
+  protected void addCachedCdaQuery( final JSONObject queries, final AutoInclude autoInclude ) {
+    try {
+      JSONObject cached = AutoIncludeCache.get( autoInclude.getCdaPath(),
+          getAutoIncludeScopeKey( autoInclude.getCacheScope() ), autoInclude.getCacheTtl(),
+          new AutoIncludeCache.Loader() {
+            @Override
+            public JSONObject load() throws Exception {
+              JSONObject cdaQueries = new JSONObject();
+              addCdaQuery( cdaQueries, autoInclude.getCdaPath() );
+              return cdaQueries;
+            }
+          } );
+      Iterator<?> ids = cached.keys();
+      while ( ids.hasNext() ) {
+        String id = String.valueOf( ids.next() );
+        queries.put( id, cached.get( id ) );
       }
-      return autoIncludes;
+    } catch ( Exception e ) {
+      logger.error( "Failed to add queries of " + autoInclude.getCdaPath() + " to context object", e );
+    }
+  }
+
+  /**
+   * @return identifies the users that may share auto-include results in the given scope
+   */
+  protected String getAutoIncludeScopeKey( String scope ) {
+    if ( AutoIncludeCache.SCOPE_ALL.equals( scope ) ) {
+      return scope;
+    }
+    if ( AutoIncludeCache.SCOPE_USER.equals( scope ) ) {
+      return scope + ":" + getUserSession().getName();
+    }
+    if ( !AutoIncludeCache.SCOPE_ROLES.equals( scope ) ) {
+      logger.warn( "Unknown auto-include cache scope " + scope + ", caching per user." );
+      return AutoIncludeCache.SCOPE_USER + ":" + getUserSession().getName();
+    }
+    Object roles = getSecurityParams().getParameter( "principalRoles" );
+    if ( roles instanceof Collection ) {
+      roles = new TreeSet<Object>( (Collection<?>) roles );
+    }
+    return scope + ":" + roles;
+  }
+
+  /**
+   * @return the cda files auto-included in a dashboard
+   */
+  protected List<String> getAutoIncludeCdaPaths( String dashboardPath, Document config ) {
+    List<String> cdaPaths = new ArrayList<String>();
+    for ( AutoInclude autoInclude : getIncludedAutoIncludes( dashboardPath, config ) ) {
+      cdaPaths.add( autoInclude.getCdaPath() );
+    }
+    return cdaPaths;
+  }
+
+  /**
+   * @return the auto-includes that apply to a dashboard, matched once per dashboard for each configuration snapshot
+   */
+  protected List<AutoInclude> getIncludedAutoIncludes( String dashboardPath, Document config ) {
+    ContextConfig snapshot = contextConfig;
+    if ( snapshot != null && snapshot.getDocument() == config ) {
+      return snapshot.getIncludedAutoIncludes( dashboardPath );
     }
+    return ContextConfig.getIncludedAutoIncludes( getAutoIncludes( config ), dashboardPath );
+  }
+
+  /**
+   * @return the auto-includes of the configuration, built along with its snapshot
+   */
+  protected List<AutoInclude> getAutoIncludes( Document config ) {
+    ContextConfig snapshot = contextConfig;
+    if ( snapshot != null && snapshot.getDocument() == config ) {
+      return snapshot.getAutoIncludes();
+    }
+    // e.g. a configuration replaced meanwhile, not kept
+    return buildAutoIncludes( config );
+  }
+
+  private List<AutoInclude> buildAutoIncludes( Document config ) {
+    IReadAccess cdaRoot = getUserContentAccess( getPluginRepositoryDir() + CdfConstants.INCLUDES_DIR );
+    return buildAutoIncludeList( config, cdaRoot );
   }
 
   protected Document getConfigFile() {
+    ContextConfig config = getContextConfig();
+    return config != null ? config.getDocument() : null;
+  }
 
-    try {
-      IContentAccessFactory factory = CdfEngine.getEnvironment().getContentAccessFactory();
-      IReadAccess access = factory.getPluginRepositoryReader( null );
+  /**
+   * @return the dashboardContext.xml snapshot, read again only if the file changed or another one takes precedence;
+   * null if not found
+   */
+  protected ContextConfig getContextConfig() {
 
-      if ( !access.fileExists( CONFIG_FILE ) ) {
-        access = factory.getPluginSystemReader( null );
-        if ( !access.fileExists( CONFIG_FILE ) ) {
+    try {
+      boolean system = false;
+      IReadAccess access = getConfigReader( false );
+      String readerName = FileResolutionCache.PLUGIN_REPOSITORY;
+
+      if ( !FileResolutionCache.fileExists( access, readerName, CONFIG_FILE ) ) {
+        system = true;
+        access = getConfigReader( true );
+        readerName = FileResolutionCache.PLUGIN_SYSTEM;
+        if ( !FileResolutionCache.fileExists( access, readerName, CONFIG_FILE ) ) {
           logger.error( CONFIG_FILE + " not found!" );
           return null;
         }
       }
+      long lastModified = FileResolutionCache.getLastModified( access, readerName, CONFIG_FILE );
+      ContextConfig current = contextConfig;
+      if ( current != null && current.isSystem() == system && lastModified > 0
+          && current.getLastModified() == lastModified ) {
+        return current;
+      }
       if ( logger.isDebugEnabled() ) {
         logger.debug( String.format( "Reading %s from %s", CONFIG_FILE, access ) );
       }
-      return XmlDom4JUtils.getDocumentFromStream( access.getFileInputStream( CONFIG_FILE ) );
+      Document document = XmlDom4JUtils.getDocumentFromStream( access.getFileInputStream( CONFIG_FILE ) );
+      ContextConfig config = new ContextConfig( system, lastModified, document, buildAutoIncludes( document ) );
+      // without a known version changes could not be detected
+      if ( lastModified > 0 ) {
+        contextConfig = config;
+      }
+      return config;
 
     } catch ( Exception e ) {
       logger.error( "Couldn't read context configuration file.", e );
@@ -415,6 +586,11 @@ public class ContextEngine {
     }
   }
 
+  protected IReadAccess getConfigReader( boolean system ) {
+    IContentAccessFactory factory = CdfEngine.getEnvironment().getContentAccessFactory();
+    return system ? factory.getPluginSystemReader( null ) : factory.getPluginRepositoryReader( null );
+  }
+
   protected boolean cdaExists() {
     return ( new InterPluginCall( InterPluginCall.CDA, "listQueries" ) ).pluginExists();
   }
@@ -431,6 +607,10 @@ public class ContextEngine {
     CdfEngine.getEnvironment().getCdfInterPluginBroker().addCdaQueries( queries, cdaPath );
   }
 
+  protected void addCdaQueries( final JSONObject queries, List<String> cdaPaths ) {
+    CdfEngine.getEnvironment().getCdfInterPluginBroker().addCdaQueries( queries, cdaPaths );
+  }
+
   protected List<AutoInclude> buildAutoIncludeList( Document config, IReadAccess cdaRoot ) {
     return AutoInclude.buildAutoIncludeList( config, cdaRoot );
   }
@@ -446,6 +626,4 @@ public class ContextEngine {
   protected boolean getLegacyStructure() {
     return legacyDashboardContext;
   }
-
-
 }
@@ -46,6 +46,8 @@ public class AutoInclude {
   private String cdaFile;
   private Matcher cdaMatcher;
   private List<DashboardMatchRule> dashboardRules;
+  private long cacheTtl;
+  private String cacheScope = AutoIncludeCache.SCOPE_ROLES;
 
   public AutoInclude() {
   }
@@ -79,6 +81,12 @@ public class AutoInclude {
     }
   }
 
+  AutoInclude( String cdaPath, Matcher cdaMatcher, AutoIncludeConfig config ) {
+    this( cdaPath, cdaMatcher, config.getDashboardRules() );
+    this.cacheTtl = config.getCacheTtl();
+    this.cacheScope = config.getCacheScope();
+  }
+
   public boolean canInclude( String dashboardPath ) {
     boolean canInclude = false;
     // each rule overrides the previous one
@@ -95,6 +103,20 @@ public class AutoInclude {
     return cdaFile;
   }
 
+  /**
+   * @return milliseconds the query results are shared for, 0 if they are run for every dashboard
+   */
+  public long getCacheTtl() {
+    return cacheTtl;
+  }
+
+  /**
+   * @return who the query results are shared between, one of the {@link AutoIncludeCache} scopes
+   */
+  public String getCacheScope() {
+    return cacheScope;
+  }
+
   @Override
   public String toString() {
     return cdaFile
@@ -158,7 +180,7 @@ public class AutoInclude {
       cdaPath = RepositoryHelper.joinPaths( getPluginIncludesDir(), cdaPath );
       Matcher matcher = config.getCdaRegex().matcher( cdaPath );
       if ( matcher.matches() ) {
-        AutoInclude include = new AutoInclude( cdaPath, matcher, config.getDashboardRules() );
+        AutoInclude include = new AutoInclude( cdaPath, matcher, config );
         autoIncludes.add( include );
       }
     }
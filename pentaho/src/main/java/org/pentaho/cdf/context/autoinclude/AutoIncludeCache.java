@@ -0,0 +1,209 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.context.autoinclude;
+
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONObject;
+import org.pentaho.cdf.render.RenderStage;
+import org.pentaho.cdf.utils.BoundedCache;
+import org.pentaho.cdf.utils.JsonUtil;
+
+/**
+ * Shares the query results of auto-included cda files between dashboard renders for the time to live of their
+ * &lt;autoinclude&gt; entry.<br>
+ * Results are kept per cda file and scope, so that users who may see different data don't share them. Requests arriving
+ * while results are being read wait for that same execution, and results are read again in the background once most of
+ * their time to live has passed, so that requests seldom have to wait. Results with failed queries are not kept.
+ */
+public class AutoIncludeCache {
+
+  private static final Log logger = LogFactory.getLog( AutoIncludeCache.class );
+
+  /**
+   * Results shared between users with the same roles, the default.
+   */
+  public static final String SCOPE_ROLES = "roles";
+  /**
+   * Results kept for each user.
+   */
+  public static final String SCOPE_USER = "user";
+  /**
+   * Results shared between all users, for data that doesn't depend on who reads it.
+   */
+  public static final String SCOPE_ALL = "all";
+
+  // upper bound for cached results
+  private static final int MAX_ENTRIES = 1024;
+  // part of the time to live after which results are read again in the background
+  private static final double REFRESH_AFTER = 0.75;
+  // upper bound for results read again in the background at the same time, apart from page stages
+  private static final int MAX_REFRESHING = Math.max( 4, Runtime.getRuntime().availableProcessors() );
+  static final Semaphore refreshPermits = new Semaphore( MAX_REFRESHING );
+
+  private static final BoundedCache<String, Entry> entries =
+      new BoundedCache<String, Entry>( "Auto-include", MAX_ENTRIES );
+
+  /**
+   * Reads the query results of a cda file.
+   */
+  public interface Loader {
+    JSONObject load() throws Exception;
+  }
+
+  private AutoIncludeCache() {
+  }
+
+  /**
+   * @param cdaPath auto-included cda file
+   * @param scopeKey identifies who the results can be shared with, e.g. the user's roles for {@link #SCOPE_ROLES}
+   * @param ttl milliseconds results are kept for
+   * @param loader reads the results when they are not cached or have expired
+   * @return the query results, shared between requests and not to be modified
+   */
+  public static JSONObject get( String cdaPath, String scopeKey, long ttl, Loader loader ) throws Exception {
+    String key = cdaPath + "|" + scopeKey;
+    long now = System.currentTimeMillis();
+    Entry entry = entries.get( key );
+    if ( entry == null || entry.isExpired( now, ttl ) ) {
+      entry = load( key, entry, loader );
+    } else if ( entry.isStale( now, ttl ) ) {
+      refresh( key, entry, loader );
+    }
+    return entry.getResult();
+  }
+
+  public static void clear() {
+    entries.clear();
+  }
+
+  private static Entry load( String key, Entry expired, Loader loader ) {
+    Entry entry = new Entry( loader );
+    boolean added;
+    if ( expired == null ) {
+      added = entries.putIfAbsent( key, entry ) == null;
+    } else {
+      added = entries.replace( key, expired, entry );
+    }
+    if ( !added ) {
+      Entry current = entries.get( key );
+      if ( current != null ) {
+        // another request is already reading them
+        return current;
+      }
+    }
+    entry.run();
+    if ( added && !entry.isCacheable() ) {
+      entries.remove( key, entry );
+    }
+    return entry;
+  }
+
+  private static void refresh( final String key, final Entry stale, final Loader loader ) {
+    if ( !stale.refreshing.compareAndSet( false, true ) ) {
+      return;
+    }
+    if ( logger.isDebugEnabled() ) {
+      logger.debug( "Refreshing auto-include results of " + key );
+    }
+    RenderStage.Writer reload = new RenderStage.Writer() {
+      @Override
+      public void write( OutputStream out ) throws Exception {
+        Entry entry = new Entry( loader );
+        entry.run();
+        if ( !entry.isCacheable() || !entries.replace( key, stale, entry ) ) {
+          // kept until it expires, next request past the refresh point tries again
+          stale.refreshing.set( false );
+        }
+      }
+    };
+    // bounded on its own, so that refreshes don't take the permits of page stages
+    RenderStage refresh = RenderStage.start( "auto-include refresh " + key, refreshPermits, reload );
+    if ( refresh.isRejected() ) {
+      // too busy, next request past the refresh point tries again
+      stale.refreshing.set( false );
+    }
+  }
+
+  private static class Entry {
+    private final FutureTask<JSONObject> result;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    // 0 while being read
+    private volatile long loaded;
+
+    private Entry( final Loader loader ) {
+      result = new FutureTask<JSONObject>( new Callable<JSONObject>() {
+        @Override
+        public JSONObject call() throws Exception {
+          return loader.load();
+        }
+      } );
+    }
+
+    private void run() {
+      result.run();
+      loaded = System.currentTimeMillis();
+    }
+
+    private boolean isExpired( long now, long ttl ) {
+      long loaded = this.loaded;
+      return loaded > 0 && now - loaded >= ttl;
+    }
+
+    private boolean isStale( long now, long ttl ) {
+      long loaded = this.loaded;
+      return loaded > 0 && now - loaded >= ttl * REFRESH_AFTER;
+    }
+
+    private JSONObject getResult() throws Exception {
+      try {
+        return result.get();
+      } catch ( ExecutionException e ) {
+        if ( e.getCause() instanceof Exception ) {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
+    }
+
+    private boolean isCacheable() {
+      JSONObject queries;
+      try {
+        queries = getResult();
+      } catch ( Exception e ) {
+        return false;
+      }
+      if ( queries == null ) {
+        return false;
+      }
+      Iterator<?> ids = queries.keys();
+      while ( ids.hasNext() ) {
+        JSONObject query = queries.optJSONObject( String.valueOf( ids.next() ) );
+        if ( query != null && JsonUtil.JsonStatus.ERROR.getValue().equals( query.optString(
+            JsonUtil.JsonField.STATUS.getValue() ) ) ) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -34,6 +34,8 @@ class AutoIncludeConfig {
   private Node node;
   private Pattern cdaRegex;
   private Pattern dataAccessIdRegex;
+  private long cacheTtl;
+  private String cacheScope;
 
   public AutoIncludeConfig( Node autoInclude ) throws PatternSyntaxException {
     node = autoInclude;
@@ -42,6 +44,13 @@ class AutoIncludeConfig {
     // TODO: not used. ditch?
     re = XmlDom4JHelper.getNodeText( "ids", autoInclude, ".*" );
     dataAccessIdRegex = Pattern.compile( re );
+    String ttl = XmlDom4JHelper.getNodeText( "cache/ttl", autoInclude, "0" );
+    try {
+      cacheTtl = Long.parseLong( ttl.trim() );
+    } catch ( NumberFormatException e ) {
+      log.error( "Bad cache ttl in " + autoInclude.asXML() + ", results won't be cached." );
+    }
+    cacheScope = XmlDom4JHelper.getNodeText( "cache/scope", autoInclude, AutoIncludeCache.SCOPE_ROLES ).trim();
   }
 
   public Pattern getCdaRegex() {
@@ -52,6 +61,20 @@ class AutoIncludeConfig {
     return dataAccessIdRegex;
   }
 
+  /**
+   * @return milliseconds query results are shared for, 0 if they are not cached
+   */
+  public long getCacheTtl() {
+    return cacheTtl;
+  }
+
+  /**
+   * @return who query results are shared between, one of the {@link AutoIncludeCache} scopes
+   */
+  public String getCacheScope() {
+    return cacheScope;
+  }
+
   @SuppressWarnings( "unchecked" )
   public List<Node> getDashboardRules() {
     return node.selectNodes( "dashboards/*" );
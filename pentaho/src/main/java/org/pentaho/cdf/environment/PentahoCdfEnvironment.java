@@ -13,10 +13,14 @@
 
 package org.pentaho.cdf.environment;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.pentaho.cdf.CdfConstants;
 import org.pentaho.cdf.environment.broker.ICdfInterPluginBroker;
 import org.pentaho.cdf.environment.broker.PentahoCdfInterPluginBroker;
 import org.pentaho.cdf.environment.configurations.IHibernateConfigurations;
@@ -25,8 +29,11 @@ import org.pentaho.cdf.environment.packager.ICdfHeadersProvider;
 import org.pentaho.cdf.environment.paths.CdfApiPathProvider;
 import org.pentaho.cdf.environment.paths.ICdfApiPathProvider;
 import org.pentaho.cdf.environment.templater.ITemplater;
-import org.pentaho.cdf.packager.CdfHeadersProvider;
+import org.pentaho.cdf.packager.ReloadingCdfHeadersProvider;
 import org.pentaho.cdf.templater.PentahoUITemplater;
+import org.pentaho.cdf.utils.FileResolutionCache;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.util.messages.LocaleHelper;
 
@@ -50,22 +57,127 @@ public class PentahoCdfEnvironment extends PentahoPluginEnvironment implements I
   private IResourceLoader resourceLoader;
   private IHibernateConfigurations pentahoHibernateConfigurations;
   private ICdfApiPathProvider cdfApipathProvider;
-  private ICdfHeadersProvider cdfHeadersProvider;
+  private ReloadingCdfHeadersProvider cdfHeadersProvider;
 
   public void init( IBeanFactory factory ) throws InitializationException {
     this.factory = factory;
 
-    pentahoHibernateConfigurations = new PentahoHibernanteConfigurations();
-    cdfApipathProvider = new CdfApiPathProvider( getPluginEnv().getUrlProvider() );
-    cdfHeadersProvider = new CdfHeadersProvider();
-
     if ( factory.containsBean( IResourceLoader.class.getSimpleName() ) ) {
       resourceLoader = (IResourceLoader) factory.getBean( IResourceLoader.class.getSimpleName() );
     }
 
+    pentahoHibernateConfigurations = new PentahoHibernanteConfigurations();
+    cdfApipathProvider = new CdfApiPathProvider( getPluginEnv().getUrlProvider() );
+    if ( cdfHeadersProvider != null ) {
+      cdfHeadersProvider.stopWatching();
+    }
+    cdfHeadersProvider = new ReloadingCdfHeadersProvider( isContentHashVersioning(), getHeadersWarmUpTypes() );
+    cdfHeadersProvider.startWatching( getHeadersReloadInterval() );
+    FileResolutionCache.setTtl( getLongSetting( CdfConstants.PLUGIN_SETTINGS_RESOLUTION_CACHE_TTL ) );
+    PentahoCdfInterPluginBroker.getInstance().setQueryTimeouts(
+      getLongSetting( CdfConstants.PLUGIN_SETTINGS_AUTO_INCLUDE_QUERY_TIMEOUT ),
+      getLongSetting( CdfConstants.PLUGIN_SETTINGS_AUTO_INCLUDE_TIMEOUT ) );
+
     super.init( this );
   }
 
+  /**
+   * Stops background work started by this environment.
+   */
+  public void shutdown() {
+    if ( cdfHeadersProvider != null ) {
+      cdfHeadersProvider.stopWatching();
+    }
+  }
+
+  /**
+   * @return if dependencies are versioned by content hash, making their versioned urls immutable
+   */
+  public boolean isContentHashVersioning() {
+    return resourceLoader != null && Boolean.parseBoolean( resourceLoader.getPluginSetting(
+      PentahoCdfEnvironment.class, CdfConstants.PLUGIN_SETTINGS_CONTENT_HASH_VERSIONING ) );
+  }
+
+  /**
+   * @return if dashboard responses should carry preload headers for the CDF scripts and styles
+   */
+  public boolean isPreloadHeaders() {
+    return resourceLoader != null && Boolean.parseBoolean( resourceLoader.getPluginSetting(
+      PentahoCdfEnvironment.class, CdfConstants.PLUGIN_SETTINGS_PRELOAD_HEADERS ) );
+  }
+
+  /**
+   * @return if preload headers should also be sent as a 103 Early Hints response
+   */
+  public boolean isEarlyHints() {
+    return resourceLoader != null && Boolean.parseBoolean( resourceLoader.getPluginSetting(
+      PentahoCdfEnvironment.class, CdfConstants.PLUGIN_SETTINGS_EARLY_HINTS ) );
+  }
+
+  /**
+   * @return if rendered dashboard pages should be reused, generating only their user specific blocks
+   */
+  public boolean isRenderCache() {
+    return resourceLoader != null && Boolean.parseBoolean( resourceLoader.getPluginSetting(
+      PentahoCdfEnvironment.class, CdfConstants.PLUGIN_SETTINGS_RENDER_CACHE ) );
+  }
+
+  /**
+   * @return if rendered dashboard pages and contexts should be sent with entity tags and revalidated
+   */
+  public boolean isETags() {
+    return resourceLoader != null && Boolean.parseBoolean( resourceLoader.getPluginSetting(
+      PentahoCdfEnvironment.class, CdfConstants.PLUGIN_SETTINGS_ETAGS ) );
+  }
+
+  /**
+   * @return if dashboard pages should be flushed as soon as their head is written
+   */
+  public boolean isEarlyFlush() {
+    return resourceLoader != null && Boolean.parseBoolean( resourceLoader.getPluginSetting(
+      PentahoCdfEnvironment.class, CdfConstants.PLUGIN_SETTINGS_EARLY_FLUSH ) );
+  }
+
+  private List<String> getHeadersWarmUpTypes() {
+    if ( resourceLoader == null ) {
+      return null;
+    }
+    String warmUp = resourceLoader.getPluginSetting( PentahoCdfEnvironment.class,
+      CdfConstants.PLUGIN_SETTINGS_HEADERS_WARM_UP );
+    List<String> dashboardTypes = new ArrayList<String>();
+    for ( String dashboardType : StringUtils.split( StringUtils.defaultString( warmUp ), ',' ) ) {
+      if ( !StringUtils.isBlank( dashboardType ) ) {
+        dashboardTypes.add( dashboardType.trim() );
+      }
+    }
+    return dashboardTypes;
+  }
+
+  private long getHeadersReloadInterval() {
+    return getLongSetting( CdfConstants.PLUGIN_SETTINGS_HEADERS_RELOAD_INTERVAL );
+  }
+
+  /**
+   * @return milliseconds the dashboard context and storage may take when generated in the background, 0 if they
+   * should be generated one after the other
+   */
+  public long getRenderStageTimeout() {
+    return getLongSetting( CdfConstants.PLUGIN_SETTINGS_RENDER_STAGE_TIMEOUT );
+  }
+
+  private long getLongSetting( String setting ) {
+    if ( resourceLoader == null ) {
+      return 0;
+    }
+    String value = resourceLoader.getPluginSetting( PentahoCdfEnvironment.class, setting );
+    try {
+      return StringUtils.isEmpty( value ) ? 0 : Long.parseLong( value.trim() );
+    } catch ( NumberFormatException e ) {
+      logger.error( "Invalid " + setting + " value: " + value );
+      return 0;
+    }
+  }
+
   @Override
   public void refresh() {
     try {
@@ -85,6 +197,12 @@ public class PentahoCdfEnvironment extends PentahoPluginEnvironment implements I
     return LocaleHelper.getLocale();
   }
 
+  @Override
+  public String getUserName() {
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    return session != null ? session.getName() : null;
+  }
+
   public IResourceLoader getResourceLoader() {
     return resourceLoader;
   }
@@ -13,13 +13,19 @@
 
 package org.pentaho.cdf.environment.broker;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -30,8 +36,11 @@ import org.dom4j.Node;
 import org.dom4j.io.SAXReader;
 import org.json.JSONObject;
 import org.json.JSONException;
+import org.pentaho.cdf.render.RenderStage;
+import org.pentaho.cdf.utils.JsonUtil;
 
 import pt.webdetails.cpf.InterPluginCall;
+import pt.webdetails.cpf.utils.CharsetHelper;
 import pt.webdetails.cpf.utils.XmlParserFactoryProducer;
 
 public class PentahoCdfInterPluginBroker implements ICdfInterPluginBroker {
@@ -39,6 +48,15 @@ public class PentahoCdfInterPluginBroker implements ICdfInterPluginBroker {
   private static final Log logger = LogFactory.getLog( PentahoCdfInterPluginBroker.class );
   private static PentahoCdfInterPluginBroker instance;
 
+  // upper bound for auto-include queries running concurrently, across requests and apart from page stages
+  private static final int MAX_RUNNING_QUERIES = Math.max( 16, Runtime.getRuntime().availableProcessors() * 4 );
+  static final Semaphore runningQueries = new Semaphore( MAX_RUNNING_QUERIES );
+
+  // milliseconds each auto-include query may take, 0 to run them one after the other
+  private volatile long queryTimeout;
+  // milliseconds all auto-include queries of a dashboard may take together, 0 for no overall limit
+  private volatile long timeout;
+
   public static PentahoCdfInterPluginBroker getInstance() {
     if ( instance == null ) {
       instance = new PentahoCdfInterPluginBroker();
@@ -46,24 +64,101 @@ public class PentahoCdfInterPluginBroker implements ICdfInterPluginBroker {
     return instance;
   }
 
+  /**
+   * @param queryTimeout milliseconds each auto-include query may take when the queries of a dashboard run
+   *                     concurrently, 0 to run them one after the other
+   * @param timeout milliseconds all the queries added together may take, 0 for no overall limit
+   */
+  public void setQueryTimeouts( long queryTimeout, long timeout ) {
+    this.queryTimeout = queryTimeout;
+    this.timeout = timeout;
+  }
+
   @Override
   public void addCdaQueries( JSONObject queries, String cdaPath ) {
-    List<String> dataAccessIds = listCdaQueries( cdaPath );
-    // String idPattern = (String) cda.selectObject("string(ids)");
-    if ( logger.isDebugEnabled() ) {
-      logger.debug( String.format( "data access ids for %s:( %s )", cdaPath, StringUtils.join(
-          dataAccessIds.iterator(), ", " ) ) );
+    addCdaQueries( queries, Collections.singletonList( cdaPath ) );
+  }
+
+  @Override
+  public void addCdaQueries( JSONObject queries, List<String> cdaPaths ) {
+    Map<String, List<String>> dataAccessIds = new LinkedHashMap<String, List<String>>();
+    for ( String cdaPath : cdaPaths ) {
+      List<String> ids = listCdaQueries( cdaPath );
+      // String idPattern = (String) cda.selectObject("string(ids)");
+      if ( logger.isDebugEnabled() ) {
+        logger.debug( String.format( "data access ids for %s:( %s )", cdaPath, StringUtils.join(
+            ids.iterator(), ", " ) ) );
+      }
+      dataAccessIds.put( cdaPath, ids );
+    }
+    if ( queryTimeout > 0 ) {
+      addCdaQueriesConcurrently( queries, dataAccessIds );
+      return;
+    }
+    for ( Map.Entry<String, List<String>> cda : dataAccessIds.entrySet() ) {
+      for ( String id : cda.getValue() ) {
+        String reply = executeCdaQuery( cda.getKey(), id );
+        addQueryResult( queries, id, reply );
+      }
+    }
+  }
+
+  /**
+   * Starts the queries of every cda file at the same time and then adds the results of those finished in time, so
+   * that the overall timeout applies to all of them together. The others are added as errors so that the dashboard
+   * can tell them from empty results, as are those that could not be started because too many auto-include queries
+   * are running.
+   */
+  private void addCdaQueriesConcurrently( JSONObject queries, Map<String, List<String>> dataAccessIds ) {
+    long start = System.currentTimeMillis();
+    long deadline = timeout > 0 ? start + timeout : Long.MAX_VALUE;
+
+    List<RunningQuery> running = new ArrayList<RunningQuery>();
+    for ( Map.Entry<String, List<String>> cda : dataAccessIds.entrySet() ) {
+      for ( String id : cda.getValue() ) {
+        running.add( new RunningQuery( cda.getKey(), id ) );
+      }
     }
-    for ( String id : dataAccessIds ) {
-      String reply = executeCdaQuery( cdaPath, id );
+
+    for ( RunningQuery query : running ) {
+      String id = query.id;
+      if ( query.stage.isRejected() ) {
+        addQueryError( queries, id, "Too many queries running" );
+        continue;
+      }
+      // counted from when the query was started
+      long wait = Math.min( queryTimeout, deadline - query.started );
       try {
-        queries.put( id, new JSONObject( reply ) );
-      } catch ( JSONException e ) {
-        logger.error( "Failed to add query " + id + " to contex object" );
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        query.stage.writeTo( reply, Math.max( wait, 0 ) );
+        addQueryResult( queries, id, reply.toString( CharsetHelper.getEncoding() ) );
+      } catch ( TimeoutException e ) {
+        logger.warn( String.format( "Auto-include query %s of %s timed out after %dms.", id, query.cdaPath,
+            System.currentTimeMillis() - start ) );
+        addQueryError( queries, id, "Query timed out" );
+      } catch ( Exception e ) {
+        logger.error( String.format( "Auto-include query %s of %s failed.", id, query.cdaPath ), e );
+        addQueryError( queries, id, "Query failed" );
       }
     }
   }
 
+  private void addQueryResult( JSONObject queries, String id, String reply ) {
+    try {
+      queries.put( id, new JSONObject( reply ) );
+    } catch ( JSONException e ) {
+      logger.error( "Failed to add query " + id + " to contex object" );
+    }
+  }
+
+  private void addQueryError( JSONObject queries, String id, String message ) {
+    try {
+      queries.put( id, JsonUtil.makeJsonErrorResponse( message, false ) );
+    } catch ( JSONException e ) {
+      logger.error( "Failed to add query " + id + " to contex object" );
+    }
+  }
+
   @Override
   public String executeCdaQuery( String path, String id ) {
     Map<String, Object> params = new HashMap<String, Object>();
@@ -100,4 +195,29 @@ public class PentahoCdfInterPluginBroker implements ICdfInterPluginBroker {
     }
     return queryOutput;
   }
+
+  /**
+   * An auto-include query started in the background.
+   */
+  private class RunningQuery {
+    private final String cdaPath;
+    private final String id;
+    private final long started;
+    private final RenderStage stage;
+
+    private RunningQuery( final String cdaPath, final String id ) {
+      this.cdaPath = cdaPath;
+      this.id = id;
+      this.started = System.currentTimeMillis();
+      this.stage = RenderStage.start( "auto-include " + id, runningQueries, new RenderStage.Writer() {
+        @Override
+        public void write( OutputStream out ) throws Exception {
+          String reply = executeCdaQuery( cdaPath, id );
+          if ( reply != null ) {
+            out.write( reply.getBytes( CharsetHelper.getEncoding() ) );
+          }
+        }
+      } );
+    }
+  }
 }
@@ -13,18 +13,23 @@
 
 package org.pentaho.cdf.render;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
@@ -39,14 +44,19 @@ import org.pentaho.cdf.environment.packager.ICdfHeadersProvider;
 import org.pentaho.cdf.environment.templater.ITemplater;
 import org.pentaho.cdf.environment.templater.ITemplater.Section;
 import org.pentaho.cdf.storage.StorageEngine;
+import org.pentaho.cdf.util.EntityTags;
 import org.pentaho.cdf.util.Parameter;
+import org.pentaho.cdf.utils.BoundedCache;
+import org.pentaho.cdf.utils.FileResolutionCache;
 
 import pt.webdetails.cpf.Util;
 import pt.webdetails.cpf.localization.MessageBundlesHelper;
 import pt.webdetails.cpf.repository.api.IBasicFile;
+import pt.webdetails.cpf.repository.api.IBasicFileFilter;
 import pt.webdetails.cpf.repository.api.IContentAccessFactory;
 import pt.webdetails.cpf.repository.api.IRWAccess;
 import pt.webdetails.cpf.repository.api.IReadAccess;
+import pt.webdetails.cpf.repository.api.IUserContentAccess;
 import pt.webdetails.cpf.repository.util.RepositoryHelper;
 import pt.webdetails.cpf.utils.CharsetHelper;
 
@@ -54,6 +64,58 @@ public class CdfHtmlRenderer {
 
   private static Log logger = LogFactory.getLog( CdfHtmlRenderer.class );
 
+  // plugin repository templates folder, as named in the file resolution cache
+  private static final String TEMPLATES_READER = FileResolutionCache.PLUGIN_REPOSITORY + ":templates/";
+
+  // upper bound for rendered pages kept in memory
+  private static final int MAX_RENDERED_FRAGMENTS = 256;
+  // upper bound for localized intros kept in memory
+  private static final int MAX_LOCALIZED_INTROS = 256;
+
+  // compiled outer templates, keyed by style, require flag and locale
+  private static final ConcurrentMap<String, OuterTemplate> outerTemplates =
+      new ConcurrentHashMap<String, OuterTemplate>();
+
+  // dashboard pages around their user specific blocks, keyed by everything that goes into them
+  private static final BoundedCache<String, Fragments> renderedFragments =
+      new BoundedCache<String, Fragments>( "Render", MAX_RENDERED_FRAGMENTS );
+  // outer template intros with their i18n parameters replaced, keyed by template, messages folder, locale, tags and
+  // message file versions
+  private static final BoundedCache<String, String> localizedIntros =
+      new BoundedCache<String, String>( "Localized intro", MAX_LOCALIZED_INTROS );
+  // changes whenever rendered pages are dropped, so that their entity tags no longer match
+  private static volatile long renderGeneration = System.currentTimeMillis();
+
+  // reuse rendered pages
+  private boolean renderCache;
+  // flush the page head before generating the user specific blocks
+  private boolean earlyFlush;
+  // milliseconds the context and storage may take when generated in the background, 0 to generate them in turn
+  private long stageTimeout;
+
+  /**
+   * @param renderCache if dashboard pages should be kept in memory around their user specific context and storage
+   */
+  public void setRenderCache( boolean renderCache ) {
+    this.renderCache = renderCache;
+  }
+
+  /**
+   * @param earlyFlush if the page should be flushed once its head is written, so that the browser fetches the
+   *                   includes while the context and storage are generated
+   */
+  public void setEarlyFlush( boolean earlyFlush ) {
+    this.earlyFlush = earlyFlush;
+  }
+
+  /**
+   * @param stageTimeout milliseconds the context and storage may take when generated in the background, while the
+   *                     page head is written; 0 to generate them in turn
+   */
+  public void setStageTimeout( long stageTimeout ) {
+    this.stageTimeout = stageTimeout;
+  }
+
   public void execute( final OutputStream out, final String solution, final String path, String templateName,
                        String style, String dashboardsMessagesBaseFilename, HashMap<String, String> parameterMap,
                        String user, int inactiveInterval ) throws Exception {
@@ -94,102 +156,472 @@ public class CdfHtmlRenderer {
                        String dashboardsMessagesBaseFilename, HashMap<String, String> parameterMap, String user,
                        int inactiveInterval, boolean isRequire, boolean loadTheme ) throws Exception {
 
-    String intro = ""; //$NON-NLS-1$
-    String footer = ""; //$NON-NLS-1$
-
-    IReadAccess systemAccess = getPluginSystemReader( null );
     style = StringUtils.isEmpty( style ) ? "" : "-" + style;
 
-    final String dashboardTemplate = "template-dashboard" + style + ".html"; //$NON-NLS-1$
+    OuterTemplate template = getOuterTemplate( style, isRequire );
 
-    ArrayList<String> i18nTagsList = new ArrayList<String>();
-    final String requireDashboardTemplate = "template-dashboard" + style + "-require.html";
-    IBasicFile templateResourceFile = null;
-    IReadAccess pluginRepoAccess = getPluginRepositoryReader( "templates/" );
+    // Merge dashboard related message file with global message file and save it in the dashboard cache
+    String path = getMessagesPath( dashboardTemplateFile );
+
+    RenderStage context = null;
+    RenderStage storage = null;
+    if ( !isRequire && stageTimeout > 0 ) {
+      // none depends on the others, so the page waits for the slowest instead of all of them in turn
+      context = RenderStage.start( "context", new RenderStage.Writer() {
+        @Override
+        public void write( OutputStream stageOut ) throws Exception {
+          generateContext( stageOut, parameterMap, inactiveInterval );
+        }
+      } );
+      storage = RenderStage.start( "storage", new RenderStage.Writer() {
+        @Override
+        public void write( OutputStream stageOut ) throws Exception {
+          generateStorage( stageOut, user );
+        }
+      } );
+    }
 
-    if ( isRequire && pluginRepoAccess.fileExists( requireDashboardTemplate ) ) {
-      templateResourceFile = pluginRepoAccess.fetchFile( requireDashboardTemplate );
-    } else if ( isRequire && systemAccess.fileExists( requireDashboardTemplate ) ) {
-      templateResourceFile = systemAccess.fetchFile( requireDashboardTemplate );
-    } else if ( pluginRepoAccess.fileExists( dashboardTemplate ) ) {
-      templateResourceFile = pluginRepoAccess.fetchFile( dashboardTemplate );
-    } else if ( systemAccess.fileExists( dashboardTemplate ) ) {
-      // then try in system
-      templateResourceFile = systemAccess.fetchFile( dashboardTemplate );
+    String key = getRenderCacheKey( dashboardTemplateFile, template, style, dashboardsMessagesBaseFilename, path,
+        parameterMap, isRequire, loadTheme );
+    Fragments fragments = key != null ? renderedFragments.get( key ) : null;
+    String dashboardContent = null;
+    try {
+      if ( fragments == null && key != null ) {
+        fragments = renderFragments( dashboardTemplateFile, template, path, parameterMap, isRequire, loadTheme );
+        renderedFragments.put( key, fragments );
+      }
+      if ( fragments != null ) {
+        out.write( fragments.head );
+      } else {
+        // not cached, straight to the response
+        dashboardContent = writeHead( out, dashboardTemplateFile, template, path, parameterMap, isRequire, loadTheme );
+      }
+    } catch ( Exception e ) {
+      if ( context != null ) {
+        context.cancel();
+        storage.cancel();
+      }
+      throw e;
+    }
+    if ( earlyFlush ) {
+      out.flush();
     }
 
-    String templateContent;
-    if ( templateResourceFile != null ) { //if a file was obtained correctly
-      templateContent = getContentString( templateResourceFile.getContents() );
-    } else { //if not get a default one
-      logger.error( "Template " + dashboardTemplate + " not available on cdf/templates, loading fallback instead" );
-      templateContent = getContentString( systemAccess.fetchFile( "template-dashboard.html" ).getContents() );
+    if ( context != null ) {
+      writeContext( out, context, parameterMap, inactiveInterval );
+      writeStorage( out, storage, user );
+    } else if ( !isRequire ) {
+      // Add context
+      try {
+        generateContext( out, parameterMap, inactiveInterval );
+      } catch ( Exception e ) {
+        logger.error( "Error generating cdf context.", e );
+      }
+      // Add storage
+      try {
+        generateStorage( out, user );
+      } catch ( Exception e ) {
+        logger.error( "Error in cdf storage.", e );
+      }
+    } else {
+      out.write( MessageFormat.format( CdfConstants.INLINE_SCRIPT, "requireCfg.config = requireCfg.config || {};\n"
+          + "requireCfg.config['cdf/dashboard/Dashboard'] = "
+          + getConfiguration( path, parameterMap, inactiveInterval ) + ";\n"
+          + "requirejs.config(requireCfg);" ).getBytes( CharsetHelper.getEncoding() ) );
     }
 
-    if ( !isRequire ) {
-      // Process i18n on dashboard outer template
-      templateContent = updateUserLanguageKey( templateContent );
-      templateContent = processi18nTags( templateContent, i18nTagsList );
-      // Process i18n on dashboard outer template - end
+    if ( fragments != null ) {
+      out.write( fragments.body );
+    } else {
+      writeBody( out, template, dashboardContent );
     }
+  }
 
-    ITemplater templater = getTemplater();
+  /**
+   * @see #getETag(IBasicFile, String, String, HashMap, String, int, boolean, boolean)
+   */
+  public String getETag( final String templatePath, String style, String dashboardsMessagesBaseFilename,
+                         HashMap<String, String> parameterMap, String user, int inactiveInterval, boolean isRequire,
+                         boolean loadTheme ) throws Exception {
 
-    intro = templater.getTemplateSection( templateContent, Section.HEADER );
-    footer = templater.getTemplateSection( templateContent, Section.FOOTER );
+    IBasicFile dashboardTemplateFile = HtmlDashboardRenderer.getDashboardTemplate( templatePath );
 
-    final String dashboardContent = getDashboardContent( dashboardTemplateFile.getContents(), i18nTagsList );
+    return getETag( dashboardTemplateFile, style, dashboardsMessagesBaseFilename, parameterMap, user,
+        inactiveInterval, isRequire, loadTheme );
+  }
 
-    // Merge dashboard related message file with global message file and save it in the dashboard cache
+  /**
+   * Weak validator for the page {@link #execute(OutputStream, IBasicFile, String, String, HashMap, String, int,
+   * boolean, boolean)} renders with the same arguments, computed from file versions and the user specific inputs
+   * without rendering it. The server dates in the context only change it every
+   * {@link EntityTags#SERVER_DATES_PERIOD}.
+   *
+   * @return quoted entity tag, null if the page can't be validated without rendering it
+   */
+  public String getETag( IBasicFile dashboardTemplateFile, String style, String dashboardsMessagesBaseFilename,
+                         HashMap<String, String> parameterMap, String user, int inactiveInterval, boolean isRequire,
+                         boolean loadTheme ) throws Exception {
+    if ( dashboardTemplateFile == null ) {
+      return null;
+    }
+    long version = getDashboardVersion( dashboardTemplateFile );
+    if ( version <= 0 ) {
+      return null;
+    }
+
+    style = StringUtils.isEmpty( style ) ? "" : "-" + style;
+    OuterTemplate template = getOuterTemplate( style, isRequire );
+
+    String path = getMessagesPath( dashboardTemplateFile );
+    String messagesVersion = getMessagesVersion( path );
+    if ( messagesVersion == null ) {
+      return null;
+    }
+    String contextInputs = isRequire
+        ? getContextInputs( path, parameterMap, inactiveInterval )
+        : getContextInputs( parameterMap, inactiveInterval );
+    if ( contextInputs == null ) {
+      return null;
+    }
+
+    String inputs = StringUtils.join( new Object[] { dashboardTemplateFile.getFullPath(), version, template.path,
+      template.system, template.lastModified, style, getLocale(), isRequire, loadTheme,
+      dashboardsMessagesBaseFilename, messagesVersion, getHeadersVersion(), renderGeneration, contextInputs,
+      EntityTags.getServerDatesInput(), getStorageInputs( user ) }, '|' );
+    return EntityTags.fromInputs( inputs );
+  }
+
+  /**
+   * @return what the context depends on, null if it can't be told without generating it
+   */
+  protected String getContextInputs( HashMap<String, String> parameterMap, int inactiveInterval ) {
+    return ContextEngine.getInstance().getContextInputs( parameterMap, inactiveInterval );
+  }
+
+  /**
+   * @param path dashboard path the context is built for
+   * @return what the context depends on, null if it can't be told without generating it
+   */
+  protected String getContextInputs( String path, HashMap<String, String> parameterMap, int inactiveInterval ) {
+    return ContextEngine.getInstance().getContextInputs( path, parameterMap, inactiveInterval );
+  }
+
+  /**
+   * @return what the storage block depends on
+   */
+  protected String getStorageInputs( String user ) throws Exception {
+    return StorageEngine.getInstance().read( user ).toString();
+  }
+
+  private String getMessagesPath( IBasicFile dashboardTemplateFile ) {
     String path = StringUtils.defaultIfEmpty( FilenameUtils.getPathNoEndSeparator( dashboardTemplateFile.getPath() ),
         getPluginRepositoryDir() );
-    path = !path.startsWith( String.valueOf( RepositoryHelper.SEPARATOR ) ) ? RepositoryHelper.SEPARATOR + path : path;
+    return !path.startsWith( String.valueOf( RepositoryHelper.SEPARATOR ) ) ? RepositoryHelper.SEPARATOR + path : path;
+  }
 
+  /**
+   * @return render cache key of the page around the user specific blocks, null if it is not to be cached
+   */
+  private String getRenderCacheKey( IBasicFile dashboardTemplateFile, OuterTemplate template, String style,
+                                    String dashboardsMessagesBaseFilename, String path,
+                                    HashMap<String, String> parameterMap, boolean isRequire, boolean loadTheme ) {
+    if ( !renderCache ) {
+      return null;
+    }
+    long version = getDashboardVersion( dashboardTemplateFile );
+    if ( version <= 0 ) {
+      return null;
+    }
+    // the localized head
+    String messagesVersion = isRequire ? "" : getMessagesVersion( path );
+    if ( messagesVersion == null ) {
+      return null;
+    }
+    return StringUtils.join( new Object[] { dashboardTemplateFile.getFullPath(), version, template.path,
+      template.system, template.lastModified, style, getLocale(), isRequire, loadTheme,
+      dashboardsMessagesBaseFilename, messagesVersion, getHeadersVersion(),
+      parameterMap.get( Parameter.DASHBOARD_TYPE ), parameterMap.get( Parameter.DEBUG ),
+      parameterMap.get( Parameter.ABSOLUTE ), parameterMap.get( Parameter.ROOT ),
+      parameterMap.get( Parameter.SCHEME ) }, '|' );
+  }
+
+  private Fragments renderFragments( IBasicFile dashboardTemplateFile, OuterTemplate template, String path,
+                                     HashMap<String, String> parameterMap, boolean isRequire, boolean loadTheme )
+    throws Exception {
+    ByteArrayOutputStream head = new ByteArrayOutputStream();
+    String dashboardContent = writeHead( head, dashboardTemplateFile, template, path, parameterMap, isRequire,
+        loadTheme );
+    ByteArrayOutputStream body = new ByteArrayOutputStream( dashboardContent.length() + template.footer.length + 32 );
+    writeBody( body, template, dashboardContent );
+    return new Fragments( head.toByteArray(), body.toByteArray() );
+  }
+
+  /**
+   * Writes the page up to the user specific blocks.
+   *
+   * @return the dashboard content, for {@link #writeBody(OutputStream, OuterTemplate, String)}
+   */
+  private String writeHead( OutputStream out, IBasicFile dashboardTemplateFile, OuterTemplate template, String path,
+                            HashMap<String, String> parameterMap, boolean isRequire, boolean loadTheme )
+    throws Exception {
+    ArrayList<String> i18nTagsList = new ArrayList<String>( template.i18nTags );
+
+    final String dashboardContent = getDashboardContent( dashboardTemplateFile.getContents(), i18nTagsList );
+
+    byte[][] intro;
     if ( !isRequire ) {
-      intro = getMessageBundlesHelper( path ).replaceParameters( intro, i18nTagsList );
+      intro = splitAtHead( getLocalizedIntro( template, path, i18nTagsList ) );
+    } else {
+      intro = template.splitIntro;
     }
 
     /*
      * Add cdf libraries
      */
-    // final Date startDate = new Date();
-    final int headIndex = intro.indexOf( "<head>" );
-    final int length = intro.length();
-    // final Hashtable addedFiles = new Hashtable();
-
-    out.write( intro.substring( 0, headIndex + 6 ).getBytes( CharsetHelper.getEncoding() ) );
+    out.write( intro[ 0 ] );
     if ( !isRequire ) { // Concat libraries to html head content
-      getHeadersInternal( dashboardContent, parameterMap, out );
+      long version = getDashboardVersion( dashboardTemplateFile );
+      getHeadersInternal( dashboardContent, version > 0 ? dashboardTemplateFile.getFullPath() + ':' + version : null,
+          parameterMap, out );
     } else { // add the webcontext dependency checking if webcontext should load pentaho active theme
       getWebContextHeader( out, loadTheme );
     }
-    out.write( intro.substring( headIndex + 6, length ).getBytes( CharsetHelper.getEncoding() ) );
+    out.write( intro[ 1 ] );
+    return dashboardContent;
+  }
 
-    if ( !isRequire ) {
-      // Add context
+  /**
+   * Writes the page after the user specific blocks.
+   */
+  private void writeBody( OutputStream out, OuterTemplate template, String dashboardContent ) throws IOException {
+    out.write( "<div id=\"dashboardContent\">".getBytes( CharsetHelper.getEncoding() ) );
+    out.write( dashboardContent.getBytes( CharsetHelper.getEncoding() ) );
+    out.write( "</div>".getBytes( CharsetHelper.getEncoding() ) );
+    out.write( template.footer );
+  }
+
+  protected long getHeadersVersion() {
+    return CdfEngine.getEnvironment().getCdfHeadersProvider().getVersion();
+  }
+
+  /**
+   * @return dashboard file modification time, 0 if unknown
+   */
+  protected long getDashboardVersion( IBasicFile dashboardTemplateFile ) {
+    try {
+      IUserContentAccess reader = CdfEngine.getUserContentReader( null );
+      String dashboardPath = dashboardTemplateFile.getFullPath();
+      return FileResolutionCache.fileExists( reader, FileResolutionCache.USER_CONTENT, dashboardPath )
+          ? FileResolutionCache.getLastModified( reader, FileResolutionCache.USER_CONTENT, dashboardPath ) : 0;
+    } catch ( Exception e ) {
+      logger.debug( "Unable to get dashboard version.", e );
+      return 0;
+    }
+  }
+
+  private void writeContext( OutputStream out, RenderStage context, HashMap<String, String> parameterMap,
+                             int inactiveInterval ) {
+    try {
+      // the timeout counts from the start of the page, the context is never generated with queries in the request
+      context.writeTo( out, stageTimeout );
+    } catch ( TimeoutException e ) {
+      // most likely slow CDA auto-include queries, leave them out
+      logger.warn( e.getMessage() + " Generating cdf context without auto-include queries." );
       try {
-        generateContext( out, parameterMap, inactiveInterval );
-      } catch ( Exception e ) {
-        logger.error( "Error generating cdf context.", e );
+        generateContextWithoutQueries( out, parameterMap, inactiveInterval );
+      } catch ( Exception contextError ) {
+        logger.error( "Error generating cdf context.", contextError );
       }
-      // Add storage
+    } catch ( Exception e ) {
+      logger.error( "Error generating cdf context.", e );
+    }
+  }
+
+  private void writeStorage( OutputStream out, RenderStage storage, String user ) {
+    if ( storage.isRejected() ) {
+      // a single read of the user's storage, not worth leaving out
       try {
         generateStorage( out, user );
       } catch ( Exception e ) {
         logger.error( "Error in cdf storage.", e );
       }
-    } else {
-      out.write( MessageFormat.format( CdfConstants.INLINE_SCRIPT, "requireCfg.config = requireCfg.config || {};\n"
-          + "requireCfg.config['cdf/dashboard/Dashboard'] = "
-          + getConfiguration( path, parameterMap, inactiveInterval ) + ";\n"
-          + "requirejs.config(requireCfg);" ).getBytes( CharsetHelper.getEncoding() ) );
+      return;
+    }
+    try {
+      storage.writeTo( out, stageTimeout );
+    } catch ( TimeoutException e ) {
+      logger.warn( e.getMessage() + " Leaving cdf storage out." );
+    } catch ( Exception e ) {
+      logger.error( "Error in cdf storage.", e );
     }
+  }
 
-    out.write( "<div id=\"dashboardContent\">".getBytes( CharsetHelper.getEncoding() ) );
+  /**
+   * Drops the compiled outer templates, so that template files added since are picked up.
+   */
+  public static void clearTemplateCache() {
+    outerTemplates.clear();
+  }
 
-    out.write( dashboardContent.getBytes( CharsetHelper.getEncoding() ) );
-    out.write( "</div>".getBytes( CharsetHelper.getEncoding() ) );
-    out.write( footer.getBytes( CharsetHelper.getEncoding() ) );
+  /**
+   * Drops the rendered dashboard pages, so that changes not reflected in file versions, such as message files, are
+   * picked up.
+   */
+  public static void clearRenderCache() {
+    renderedFragments.clear();
+    renderGeneration = System.currentTimeMillis();
+  }
+
+  /**
+   * Drops the localized outer template intros, so that the merged message files are written again. Must be called
+   * whenever those files are deleted.
+   */
+  public static void clearMessagesCache() {
+    localizedIntros.clear();
+  }
+
+  /**
+   * @param path folder of the dashboard message files
+   * @return the outer template intro with its i18n parameters replaced, merging and writing the message files only if
+   * they changed since
+   */
+  protected String getLocalizedIntro( OuterTemplate template, String path, ArrayList<String> i18nTagsList )
+    throws Exception {
+    String key = null;
+    String version = getMessagesVersion( path );
+    if ( version != null ) {
+      key = StringUtils.join( new Object[] { path, getLocale(), template.path, template.system,
+        template.lastModified, version, StringUtils.join( i18nTagsList, ',' ) }, '|' );
+      String intro = localizedIntros.get( key );
+      if ( intro != null ) {
+        return intro;
+      }
+    }
+    String intro = getMessageBundlesHelper( path ).replaceParameters( template.intro, i18nTagsList );
+    if ( key != null ) {
+      localizedIntros.put( key, intro );
+    }
+    return intro;
+  }
+
+  /**
+   * @param path folder of the dashboard message files
+   * @return names and modification times of the message files in the folder, null if unknown; kept for as long as
+   *         other file lookups
+   */
+  protected String getMessagesVersion( final String path ) {
+    return FileResolutionCache.get( "messagesVersion", FileResolutionCache.USER_CONTENT, path,
+        new FileResolutionCache.Lookup<String>() {
+          @Override
+          public String lookup() {
+            return readMessagesVersion( path );
+          }
+        } );
+  }
+
+  private String readMessagesVersion( String path ) {
+    try {
+      IReadAccess reader = getMessagesReader( path );
+      List<IBasicFile> files = reader.listFiles( path, new IBasicFileFilter() {
+        @Override
+        public boolean accept( IBasicFile file ) {
+          return "properties".equals( FilenameUtils.getExtension( file.getPath() ) );
+        }
+      } );
+      List<String> versions = new ArrayList<String>();
+      if ( files != null ) {
+        for ( IBasicFile file : files ) {
+          long lastModified = reader.getLastModified( file.getPath() );
+          if ( lastModified <= 0 ) {
+            return null;
+          }
+          versions.add( file.getPath() + ':' + lastModified );
+        }
+      }
+      Collections.sort( versions );
+      return StringUtils.join( versions, ',' );
+    } catch ( Exception e ) {
+      logger.debug( "Unable to get message files version.", e );
+      return null;
+    }
+  }
+
+  /**
+   * @param style normalized style suffix
+   * @return the compiled outer template, compiled again if its file changed
+   */
+  protected OuterTemplate getOuterTemplate( String style, boolean isRequire ) throws Exception {
+    String key = style + '|' + isRequire + '|' + getLocale();
+    OuterTemplate template = outerTemplates.get( key );
+    if ( template != null ) {
+      IReadAccess reader = template.system ? getPluginSystemReader( null ) : getPluginRepositoryReader( "templates/" );
+      if ( FileResolutionCache.getLastModified( reader, template.system ? FileResolutionCache.PLUGIN_SYSTEM
+          : TEMPLATES_READER, template.path ) == template.lastModified ) {
+        return template;
+      }
+    }
+    template = compileOuterTemplate( style, isRequire );
+    outerTemplates.put( key, template );
+    return template;
+  }
+
+  private OuterTemplate compileOuterTemplate( String style, boolean isRequire ) throws Exception {
+    IReadAccess systemAccess = getPluginSystemReader( null );
+
+    final String dashboardTemplate = "template-dashboard" + style + ".html"; //$NON-NLS-1$
+
+    ArrayList<String> i18nTagsList = new ArrayList<String>();
+    final String requireDashboardTemplate = "template-dashboard" + style + "-require.html";
+    IReadAccess pluginRepoAccess = getPluginRepositoryReader( "templates/" );
+
+    String templatePath;
+    boolean system;
+    if ( isRequire && FileResolutionCache.fileExists( pluginRepoAccess, TEMPLATES_READER, requireDashboardTemplate ) ) {
+      templatePath = requireDashboardTemplate;
+      system = false;
+    } else if ( isRequire && FileResolutionCache.fileExists( systemAccess, FileResolutionCache.PLUGIN_SYSTEM,
+        requireDashboardTemplate ) ) {
+      templatePath = requireDashboardTemplate;
+      system = true;
+    } else if ( FileResolutionCache.fileExists( pluginRepoAccess, TEMPLATES_READER, dashboardTemplate ) ) {
+      templatePath = dashboardTemplate;
+      system = false;
+    } else if ( FileResolutionCache.fileExists( systemAccess, FileResolutionCache.PLUGIN_SYSTEM, dashboardTemplate ) ) {
+      // then try in system
+      templatePath = dashboardTemplate;
+      system = true;
+    } else { //if not get a default one
+      logger.error( "Template " + dashboardTemplate + " not available on cdf/templates, loading fallback instead" );
+      templatePath = "template-dashboard.html";
+      system = true;
+    }
+    IReadAccess templateAccess = system ? systemAccess : pluginRepoAccess;
+    long lastModified = templateAccess.getLastModified( templatePath );
+    String templateContent = getContentString( templateAccess.fetchFile( templatePath ).getContents() );
+
+    if ( !isRequire ) {
+      // Process i18n on dashboard outer template
+      templateContent = updateUserLanguageKey( templateContent );
+      templateContent = processi18nTags( templateContent, i18nTagsList );
+      // Process i18n on dashboard outer template - end
+    }
+
+    ITemplater templater = getTemplater();
+
+    String intro = templater.getTemplateSection( templateContent, Section.HEADER );
+    String footer = templater.getTemplateSection( templateContent, Section.FOOTER );
+
+    return new OuterTemplate( system, templatePath, lastModified, intro, isRequire ? splitAtHead( intro ) : null,
+        i18nTagsList, footer.getBytes( CharsetHelper.getEncoding() ) );
+  }
+
+  /**
+   * @return the intro up to and including &lt;head&gt;, and the rest of it
+   */
+  private static byte[][] splitAtHead( String intro ) throws IOException {
+    final int headIndex = intro.indexOf( "<head>" );
+    return new byte[][] { intro.substring( 0, headIndex + 6 ).getBytes( CharsetHelper.getEncoding() ),
+      intro.substring( headIndex + 6 ).getBytes( CharsetHelper.getEncoding() ) };
   }
 
   protected String getConfiguration( String path, HashMap<String, String> parameterMap,
@@ -229,48 +661,19 @@ public class CdfHtmlRenderer {
 
   protected String getDashboardContent( InputStream is, ArrayList<String> i18nTagsList ) throws Exception {
     // Fixed ISSUE #CDF-113
-    // BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-    BufferedReader reader = new BufferedReader(
-        new InputStreamReader( is, Charset.forName( CdfEngine.getEnvironment().getSystemEncoding() ) ) );
-
-    StringBuilder sb = new StringBuilder();
-    String line = null;
-    while ( ( line = reader.readLine() ) != null ) {
+    Reader reader = new InputStreamReader( is, Charset.forName( CdfEngine.getEnvironment().getSystemEncoding() ) );
+    StringWriter out = new StringWriter( Math.max( is.available(), 16 ) );
+    try {
       // Process i18n for each line of the dashboard output
-      line = processi18nTags( line, i18nTagsList );
-      // Process i18n - end
-      sb.append( line + "\n" ); //$NON-NLS-1$
+      I18nTagProcessor.process( reader, out, i18nTagsList );
+    } finally {
+      is.close();
     }
-    is.close();
-    return sb.toString();
+    return out.toString();
   }
 
   protected String processi18nTags( String content, ArrayList<String> tagsList ) {
-
-    String tagPattern = "CDF.i18n\\(\""; //$NON-NLS-1$
-    String[] test = content.split( tagPattern );
-    if ( test.length == 1 ) {
-      return content;
-    }
-    StringBuffer resBuffer = new StringBuffer();
-    int i;
-    String tagValue;
-    resBuffer.append( test[ 0 ] );
-    for ( i = 1; i < test.length; i++ ) {
-
-      // First tag is processed differently that other because is the only case where I don't
-      // have key in first position
-      resBuffer.append( "<span id=\"" ); //$NON-NLS-1$
-      if ( i != 0 ) {
-        // Right part of the string with the value of the tag herein
-        tagValue = test[ i ].substring( 0, test[ i ].indexOf( "\")" ) ); //$NON-NLS-1$
-        tagsList.add( tagValue );
-        resBuffer.append( updateSelectorName( tagValue ) );
-        resBuffer.append( "\"></span>" ); //$NON-NLS-1$
-        resBuffer.append( test[ i ].substring( test[ i ].indexOf( "\")" ) + 2, test[ i ].length() ) ); //$NON-NLS-1$
-      }
-    }
-    return resBuffer.toString();
+    return I18nTagProcessor.process( content, tagsList );
   }
 
   private String updateSelectorName( String name ) {
@@ -302,13 +705,24 @@ public class CdfHtmlRenderer {
     getHeaders( dashboardContent, paramMap, out );
   }
 
-  protected void getHeadersInternal( String dashboardContent, HashMap<String, String> paramMap, OutputStream out )
-    throws Exception {
-    getHeaders( dashboardContent, paramMap, out );
+  /**
+   * @param dashboardVersion dashboard path and version, null if unknown
+   */
+  protected void getHeadersInternal( String dashboardContent, String dashboardVersion,
+                                     HashMap<String, String> paramMap, OutputStream out ) throws Exception {
+    getHeaders( dashboardContent, dashboardVersion, paramMap, out );
   }
 
   public static void getHeaders( String dashboardContent, HashMap<String, String> paramMap, OutputStream out )
     throws Exception {
+    getHeaders( dashboardContent, null, paramMap, out );
+  }
+
+  /**
+   * @param dashboardVersion path and version of the dashboard file, null if unknown
+   */
+  public static void getHeaders( String dashboardContent, String dashboardVersion, HashMap<String, String> paramMap,
+                                 OutputStream out ) throws Exception {
 
     final String dashboardType = StringUtils.defaultIfEmpty( paramMap.get( Parameter.DASHBOARD_TYPE ), "blueprint" );
     final boolean isDebugMode = Boolean.TRUE.toString().equalsIgnoreCase( paramMap.get( Parameter.DEBUG ) );
@@ -316,46 +730,61 @@ public class CdfHtmlRenderer {
     String scheme = StringUtils.defaultIfEmpty( paramMap.get( Parameter.SCHEME ), "http" );
     boolean absolute = StringUtils.defaultIfEmpty( paramMap.get( Parameter.ABSOLUTE ), "false" ).equals( "true" );
 
-    getHeaders( dashboardContent, dashboardType, absolute, root, scheme, isDebugMode, out );
+    getHeaders( dashboardContent, dashboardVersion, dashboardType, absolute, root, scheme, isDebugMode, out );
+  }
+
+  /**
+   * @return 'Link' header values preloading the scripts and styles {@link #getHeaders(HashMap, OutputStream)} includes
+   */
+  public static List<String> getPreloadLinks( HashMap<String, String> paramMap ) {
+    final String dashboardType = StringUtils.defaultIfEmpty( paramMap.get( Parameter.DASHBOARD_TYPE ), "blueprint" );
+    final boolean isDebugMode = Boolean.TRUE.toString().equalsIgnoreCase( paramMap.get( Parameter.DEBUG ) );
+    String root = StringUtils.defaultString( paramMap.get( Parameter.ROOT ) );
+    String scheme = StringUtils.defaultIfEmpty( paramMap.get( Parameter.SCHEME ), "http" );
+    boolean absolute = StringUtils.defaultIfEmpty( paramMap.get( Parameter.ABSOLUTE ), "false" ).equals( "true" );
+    return CdfEngine.getEnvironment().getCdfHeadersProvider().getPreloadLinks( dashboardType, isDebugMode,
+        getWebRoot( absolute, root, scheme ) );
   }
 
   public static void getHeaders( String dashboardContent, String dashboardType, boolean absolute, String root,
                                  String scheme, boolean isDebugMode, OutputStream out ) throws Exception {
+    getHeaders( dashboardContent, null, dashboardType, absolute, root, scheme, isDebugMode, out );
+  }
+
+  /**
+   * @param dashboardVersion path and version of the dashboard file, so that its content isn't hashed to find the
+   * components it uses; null if unknown
+   */
+  public static void getHeaders( String dashboardContent, String dashboardVersion, String dashboardType,
+                                 boolean absolute, String root, String scheme, boolean isDebugMode, OutputStream out )
+    throws Exception {
 
     ICdfHeadersProvider cdfHeaders = CdfEngine.getEnvironment().getCdfHeadersProvider();
     // Identify which extra JSs and CSSs to add to header, according to components being used
-    List<String> componentTypes = new ArrayList<String>( CdfConstants.DASHBOARD_COMPONENT_TYPES.length );
+    List<String> componentTypes = new ArrayList<String>();
     if ( dashboardContent != null ) {
-      componentTypes = new ArrayList<String>();
       // search for component types in dashboardsContent (e.g. template.html)
-      for ( String[] componenType : CdfConstants.DASHBOARD_COMPONENT_TYPES ) {
-        // Screen Scrap to get component types from dashboardContent
-        if ( Pattern.compile( String.format( "type:\\s*[\"'](?i)%s[a-z]*[\"']", componenType[ 0 ] ) )
-            .matcher( dashboardContent ).find() ) {
-          componentTypes.add( componenType[ 1 ] );
-        }
-      }
+      componentTypes = cdfHeaders.getComponentTypes( dashboardContent, dashboardVersion );
     }
-    if ( absolute ) {
-      String webRoot;
+    cdfHeaders.writeHeaders( out, dashboardType, isDebugMode, getWebRoot( absolute, root, scheme ), componentTypes );
+  }
 
-      // some dashboards need full absolute urls
-      if ( !StringUtils.isEmpty( root ) ) {
-        if ( root.contains( "/" ) ) {
-          // file paths are already absolute, which didn't happen before
-          root = root.substring( 0, root.indexOf( "/" ) );
-        }
-        webRoot = scheme + "://" + root;
-      } else {
-        webRoot = CdfEngine.getEnvironment().getPathProvider().getWebappContextRoot();
+  /**
+   * @return protocol+domain to prepend to include urls, null for relative ones
+   */
+  static String getWebRoot( boolean absolute, String root, String scheme ) {
+    if ( !absolute ) {
+      return null;
+    }
+    // some dashboards need full absolute urls
+    if ( !StringUtils.isEmpty( root ) ) {
+      if ( root.contains( "/" ) ) {
+        // file paths are already absolute, which didn't happen before
+        root = root.substring( 0, root.indexOf( "/" ) );
       }
-
-      out.write( cdfHeaders.getHeaders( dashboardType, isDebugMode, webRoot, componentTypes )
-          .getBytes( CharsetHelper.getEncoding() ) );
-    } else {
-      out.write(
-          cdfHeaders.getHeaders( dashboardType, isDebugMode, componentTypes ).getBytes( CharsetHelper.getEncoding() ) );
+      return scheme + "://" + root;
     }
+    return CdfEngine.getEnvironment().getPathProvider().getWebappContextRoot();
   }
 
   protected void generateStorage( final OutputStream out, final String user ) throws Exception {
@@ -376,6 +805,14 @@ public class CdfHtmlRenderer {
     ContextEngine.getInstance().generateContext( out, parameterMap, inactiveInterval );
   }
 
+  /**
+   * Context with empty auto-include query results.
+   */
+  protected void generateContextWithoutQueries( final OutputStream out, HashMap parameterMap, int inactiveInterval )
+    throws Exception {
+    ContextEngine.getInstance().generateContext( out, parameterMap, inactiveInterval, false );
+  }
+
   protected IReadAccess getPluginSystemReader( String path ) {
     return CdfEngine.getPluginSystemReader( path );
   }
@@ -397,11 +834,13 @@ public class CdfHtmlRenderer {
     String cdfStaticBaseUrl = CdfEngine.getEnvironment().getPathProvider().getPluginStaticBaseUrl();
     IRWAccess cdfSystemWriter = factory.getPluginSystemWriter( null );
 
-    return new MessageBundlesHelper( path,
-      Util.getAppropriateReadAccess( path, factory, CdfEngine.getEnvironment().getPluginId(),
-        CdfEngine.getEnvironment().getSystemDir(), getPluginRepositoryDir() ),
-      cdfSystemWriter, CdfEngine.getEnvironment().getLocale(),
-      cdfStaticBaseUrl );
+    return new MessageBundlesHelper( path, getMessagesReader( path ), cdfSystemWriter,
+      CdfEngine.getEnvironment().getLocale(), cdfStaticBaseUrl );
+  }
+
+  private IReadAccess getMessagesReader( String path ) {
+    return Util.getAppropriateReadAccess( path, CdfEngine.getEnvironment().getContentAccessFactory(),
+      CdfEngine.getEnvironment().getPluginId(), CdfEngine.getEnvironment().getSystemDir(), getPluginRepositoryDir() );
   }
 
   protected String getContentString( InputStream inputStream ) throws IOException {
@@ -411,4 +850,43 @@ public class CdfHtmlRenderer {
   protected ITemplater getTemplater() {
     return CdfEngine.getEnvironment().getTemplater();
   }
+
+  /**
+   * Outer template with the request independent processing done.
+   */
+  protected static class OuterTemplate {
+    private final boolean system;
+    private final String path;
+    private final long lastModified;
+    // header section, i18n parameters not yet replaced
+    private final String intro;
+    // header section split at the head tag, require templates only
+    private final byte[][] splitIntro;
+    private final List<String> i18nTags;
+    private final byte[] footer;
+
+    public OuterTemplate( boolean system, String path, long lastModified, String intro, byte[][] splitIntro,
+                          List<String> i18nTags, byte[] footer ) {
+      this.system = system;
+      this.path = path;
+      this.lastModified = lastModified;
+      this.intro = intro;
+      this.splitIntro = splitIntro;
+      this.i18nTags = Collections.unmodifiableList( i18nTags );
+      this.footer = footer;
+    }
+  }
+
+  /**
+   * Dashboard page before and after its user specific blocks.
+   */
+  private static class Fragments {
+    private final byte[] head;
+    private final byte[] body;
+
+    public Fragments( byte[] head, byte[] body ) {
+      this.head = head;
+      this.body = body;
+    }
+  }
 }
@@ -0,0 +1,184 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.render;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+
+/**
+ * A block of a dashboard page generated in the background while the rest of the page is written, then copied to the
+ * page in document order. Also used for the auto-include query results that make up the dashboard context.<br>
+ * Each stage runs in a new thread, virtual if available, so that it inherits the session and security context of the
+ * request thread. When too many stages are running the stage is not generated at all, callers are expected to fall back
+ * to something cheaper instead of blocking the request on it, see {@link #isRejected()}.
+ */
+public class RenderStage {
+
+  private static final Log logger = LogFactory.getLog( RenderStage.class );
+
+  // upper bound for stages running in the background, across requests
+  static final int MAX_RUNNING_STAGES = Math.max( 16, Runtime.getRuntime().availableProcessors() * 8 );
+  private static final Semaphore running = new Semaphore( MAX_RUNNING_STAGES );
+  private static final ThreadFactory threadFactory = createThreadFactory();
+
+  /**
+   * Generates the contents of a stage.
+   */
+  public interface Writer {
+    void write( OutputStream out ) throws Exception;
+  }
+
+  private final String name;
+  // null if the stage was rejected
+  private final Future<byte[]> result;
+  private final long started;
+
+  private RenderStage( String name, Future<byte[]> result, long started ) {
+    this.name = name;
+    this.result = result;
+    this.started = started;
+  }
+
+  /**
+   * Starts generating a block of the page, unless too many stages are running.
+   *
+   * @param name used in logs and thread names
+   * @return the stage, rejected if it could not be started
+   */
+  public static RenderStage start( String name, Writer writer ) {
+    return start( name, running, writer );
+  }
+
+  /**
+   * Starts a stage bounded separately from page stages, so that stages that may take long don't use up theirs.
+   *
+   * @param name used in logs and thread names
+   * @param permits one is taken while the stage runs
+   * @return the stage, rejected if no permit was available
+   */
+  public static RenderStage start( String name, final Semaphore permits, final Writer writer ) {
+    final IPentahoSession session = PentahoSessionHolder.getSession();
+    FutureTask<byte[]> task = new FutureTask<byte[]>( new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write( out );
+        return out.toByteArray();
+      }
+    } );
+    long started = System.currentTimeMillis();
+    if ( !permits.tryAcquire() ) {
+      logger.warn( "Too many render stages running, " + name + " was not started." );
+      return new RenderStage( name, null, started );
+    }
+    final FutureTask<byte[]> stage = task;
+    try {
+      threadFactory.newThread( new Runnable() {
+        @Override
+        public void run() {
+          PentahoSessionHolder.setSession( session );
+          try {
+            stage.run();
+          } finally {
+            PentahoSessionHolder.removeSession();
+            permits.release();
+          }
+        }
+      } ).start();
+    } catch ( RuntimeException | Error e ) {
+      permits.release();
+      throw e;
+    }
+    return new RenderStage( name, stage, started );
+  }
+
+  /**
+   * @return if the stage was not started because too many stages are running
+   */
+  public boolean isRejected() {
+    return result == null;
+  }
+
+  /**
+   * Waits for the stage and writes its contents, nothing is written if it fails or times out.
+   *
+   * @param timeout milliseconds the stage may take, counted from when it was started
+   * @throws TimeoutException if the stage did not finish in time, it is then cancelled, or if it was rejected
+   * @throws Exception the error generating the stage
+   */
+  public void writeTo( OutputStream out, long timeout ) throws Exception {
+    if ( result == null ) {
+      throw new TimeoutException( String.format( "Render stage %s was not started, too many running.", name ) );
+    }
+    byte[] contents;
+    try {
+      long wait = started + timeout - System.currentTimeMillis();
+      contents = result.get( Math.max( wait, 0 ), TimeUnit.MILLISECONDS );
+    } catch ( TimeoutException e ) {
+      result.cancel( true );
+      throw new TimeoutException( String.format( "Render stage %s took longer than %dms.", name, timeout ) );
+    } catch ( ExecutionException e ) {
+      if ( e.getCause() instanceof Exception ) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+    out.write( contents );
+  }
+
+  /**
+   * Stops the stage when its contents are no longer needed.
+   */
+  public void cancel() {
+    if ( result != null ) {
+      result.cancel( true );
+    }
+  }
+
+  private static ThreadFactory createThreadFactory() {
+    try {
+      // java 21
+      Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+      Class<?> builderClass = Class.forName( "java.lang.Thread$Builder" );
+      builder = builderClass.getMethod( "name", String.class, long.class ).invoke( builder, "cdf-render-", 0L );
+      return (ThreadFactory) builderClass.getMethod( "factory" ).invoke( builder );
+    } catch ( Exception e ) {
+      logger.debug( "Virtual threads not available, rendering with platform threads." );
+    }
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread( Runnable runnable ) {
+        Thread thread = new Thread( runnable, "cdf-render-" + count.getAndIncrement() );
+        thread.setDaemon( true );
+        return thread;
+      }
+    };
+  }
+}
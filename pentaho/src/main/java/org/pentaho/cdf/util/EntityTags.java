@@ -0,0 +1,76 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.util;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+import org.apache.commons.lang.StringUtils;
+
+import pt.webdetails.cpf.utils.CharsetHelper;
+
+/**
+ * Weak entity tags for generated content, and conditional request matching.<br>
+ * Tags are computed from what the content depends on rather than from its bytes, and the server dates in the dashboard
+ * context are left out of them, so content with the same tag is equivalent but not identical. The server dates a
+ * client revalidating its copy keeps using are at most {@link #SERVER_DATES_PERIOD} old.
+ */
+public class EntityTags {
+
+  public static final String ETAG = "ETag";
+  public static final String IF_NONE_MATCH = "If-None-Match";
+  // browsers may keep the page but must revalidate it before each use
+  public static final String CACHE_CONTROL = "private, no-cache";
+  // how long a client may keep the server dates of the content it revalidates
+  public static final long SERVER_DATES_PERIOD = 60 * 60 * 1000;
+
+  private EntityTags() {
+  }
+
+  /**
+   * @param inputs everything the content depends on
+   * @return weak entity tag for the content
+   */
+  public static String fromInputs( String inputs ) throws Exception {
+    byte[] digest = MessageDigest.getInstance( "MD5" ).digest( inputs.getBytes( CharsetHelper.getEncoding() ) );
+    return "W/\"" + String.format( "%032x", new BigInteger( 1, digest ) ) + '"';
+  }
+
+  /**
+   * @return input that changes every {@link #SERVER_DATES_PERIOD}, for content with the server dates
+   */
+  public static long getServerDatesInput() {
+    return System.currentTimeMillis() / SERVER_DATES_PERIOD;
+  }
+
+  /**
+   * @param ifNoneMatch If-None-Match request header, a list of entity tags or *
+   * @param etag entity tag of the current content
+   * @return if the client already has the current content
+   */
+  public static boolean matches( String ifNoneMatch, String etag ) {
+    if ( StringUtils.isBlank( ifNoneMatch ) || etag == null ) {
+      return false;
+    }
+    // weak comparison, as for If-None-Match
+    etag = StringUtils.removeStart( etag, "W/" );
+    for ( String tag : ifNoneMatch.split( "," ) ) {
+      tag = StringUtils.removeStart( tag.trim(), "W/" );
+      if ( tag.equals( "*" ) || tag.equals( etag ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
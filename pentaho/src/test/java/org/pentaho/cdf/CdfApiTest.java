@@ -32,6 +32,7 @@ import java.util.Map;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -107,4 +108,13 @@ public class CdfApiTest {
     assertEquals( "https://my.domain.com:8443/foobar",
       cdf.buildFullServerUrl( "HTTP/1.1", "my.domain.com", 8443, true ) );
   }
+
+  @Test
+  public void testClearRenderCache() throws Exception {
+    doReturn( false ).when( cdfApi ).isAdministrator();
+    assertEquals( Response.Status.FORBIDDEN.getStatusCode(), cdfApi.clearRenderCache().getStatus() );
+
+    doReturn( true ).when( cdfApi ).isAdministrator();
+    assertEquals( Response.Status.OK.getStatusCode(), cdfApi.clearRenderCache().getStatus() );
+  }
 }
@@ -0,0 +1,180 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf;
+
+import java.io.ByteArrayInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.Response;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import pt.webdetails.cpf.repository.api.IReadAccess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResourcesApiTest {
+
+  // md5 of "content"
+  private static final String CONTENT_HASH = "9a0364b9e99bb480dd25e1f0284c8555";
+  private static final String PATH = "js/cdf-test-" + System.nanoTime() + ".js";
+
+  private ResourcesApi resourcesApi;
+  private IReadAccess systemReader;
+  private HttpServletRequest request;
+
+  @Before
+  public void setUp() throws Exception {
+    resourcesApi = spy( new ResourcesApi() );
+    systemReader = mock( IReadAccess.class );
+    doReturn( systemReader ).when( resourcesApi ).getSystemReader();
+    doReturn( true ).when( resourcesApi ).isContentHashVersioning();
+    doReturn( false ).when( resourcesApi ).isPrebuiltBundle( any( String.class ) );
+    doReturn( 1L ).when( systemReader ).getLastModified( PATH );
+    when( systemReader.getFileInputStream( PATH ) ).thenAnswer( new Answer<Object>() {
+      @Override public Object answer( InvocationOnMock invocation ) throws Throwable {
+        return new ByteArrayInputStream( "content".getBytes( "UTF-8" ) );
+      }
+    } );
+    request = mock( HttpServletRequest.class );
+  }
+
+  @Test
+  public void testIsImmutable() throws Exception {
+    doReturn( CONTENT_HASH ).when( request ).getParameter( "v" );
+    assertTrue( resourcesApi.isImmutable( request, PATH ) );
+    assertTrue( resourcesApi.isImmutable( request, PATH ) );
+    // hashed once until the file changes
+    verify( systemReader, times( 1 ) ).getFileInputStream( PATH );
+
+    doReturn( false ).when( resourcesApi ).isContentHashVersioning();
+    assertFalse( resourcesApi.isImmutable( request, PATH ) );
+  }
+
+  @Test
+  public void testIsImmutableOtherVersions() throws Exception {
+    // modification time versions, guessed or stale hashes
+    for ( String version : new String[] { "1", "x", "0123456789abcdef0123456789abcdef", "", null } ) {
+      doReturn( version ).when( request ).getParameter( "v" );
+      assertFalse( resourcesApi.isImmutable( request, PATH ) );
+    }
+
+    // file changed
+    doReturn( CONTENT_HASH ).when( request ).getParameter( "v" );
+    assertTrue( resourcesApi.isImmutable( request, PATH ) );
+    doReturn( 2L ).when( systemReader ).getLastModified( PATH );
+    when( systemReader.getFileInputStream( PATH ) ).thenAnswer( new Answer<Object>() {
+      @Override public Object answer( InvocationOnMock invocation ) throws Throwable {
+        return new ByteArrayInputStream( "changed".getBytes( "UTF-8" ) );
+      }
+    } );
+    assertFalse( resourcesApi.isImmutable( request, PATH ) );
+    verify( systemReader, times( 2 ) ).getFileInputStream( PATH );
+  }
+
+  @Test
+  public void testIsImmutablePrebuiltBundle() throws Exception {
+    String bundle = "js-legacy/bundles/cdf-blueprint-script-includes." + CONTENT_HASH + ".js";
+    doReturn( true ).when( resourcesApi ).isPrebuiltBundle( bundle );
+    doReturn( false ).when( resourcesApi ).isContentHashVersioning();
+
+    // the hash is in the name, no version parameter
+    assertTrue( resourcesApi.isImmutable( request, bundle ) );
+    assertFalse( resourcesApi.isImmutable( request, PATH ) );
+  }
+
+  @Test
+  public void testAcceptsGzip() {
+    assertTrue( ResourcesApi.acceptsGzip( "gzip, deflate, br" ) );
+    assertTrue( ResourcesApi.acceptsGzip( "deflate;q=1.0, GZIP;q=0.5" ) );
+    assertTrue( ResourcesApi.acceptsGzip( "x-gzip" ) );
+    assertTrue( ResourcesApi.acceptsGzip( "*" ) );
+    assertFalse( ResourcesApi.acceptsGzip( "gzip;q=0" ) );
+    assertFalse( ResourcesApi.acceptsGzip( "gzip; q=0.0, *" ) );
+    assertFalse( ResourcesApi.acceptsGzip( "identity, x-gzip;q=0" ) );
+    assertFalse( ResourcesApi.acceptsGzip( "*;q=0" ) );
+    assertFalse( ResourcesApi.acceptsGzip( "deflate, br" ) );
+    assertFalse( ResourcesApi.acceptsGzip( (String) null ) );
+  }
+
+  @Test
+  public void testGetSystemResourcePrecompressed() throws Exception {
+    HttpServletResponse response = mockResource();
+    doReturn( "gzip, deflate" ).when( request ).getHeader( "Accept-Encoding" );
+    doReturn( true ).when( systemReader ).fileExists( PATH + ".gz" );
+    doReturn( 1L ).when( systemReader ).getLastModified( PATH + ".gz" );
+
+    Response resourceResponse = resourcesApi.getSystemResource( PATH, request, response );
+
+    assertEquals( "gzip", resourceResponse.getMetadata().getFirst( "Content-Encoding" ) );
+    verify( resourcesApi, never() ).readPluginFile( PATH, response );
+    verify( response ).setHeader( "Cache-Control", "max-age=3600" );
+    verify( response ).setHeader( "Vary", "Accept-Encoding" );
+  }
+
+  @Test
+  public void testGetSystemResourceUncompressed() throws Exception {
+    HttpServletResponse response = mockResource();
+    doReturn( true ).when( systemReader ).fileExists( PATH + ".gz" );
+    doReturn( 1L ).when( systemReader ).getLastModified( PATH + ".gz" );
+
+    for ( String acceptEncoding : new String[] { null, "gzip;q=0", "identity" } ) {
+      doReturn( acceptEncoding ).when( request ).getHeader( "Accept-Encoding" );
+      Response resourceResponse = resourcesApi.getSystemResource( PATH, request, response );
+      assertNull( resourceResponse.getMetadata().getFirst( "Content-Encoding" ) );
+    }
+    verify( resourcesApi, times( 3 ) ).readPluginFile( PATH, response );
+    // the response still varies with the header
+    verify( response, times( 3 ) ).setHeader( "Vary", "Accept-Encoding" );
+    verify( response, never() ).setHeader( eq( "Cache-Control" ), any( String.class ) );
+  }
+
+  @Test
+  public void testGetSystemResourceImmutable() throws Exception {
+    HttpServletResponse response = mockResource();
+    doReturn( CONTENT_HASH ).when( request ).getParameter( "v" );
+
+    resourcesApi.getSystemResource( PATH, request, response );
+    verify( response ).setHeader( "Cache-Control", "public, max-age=31536000, immutable" );
+
+    doReturn( "1" ).when( request ).getParameter( "v" );
+    response = mockResource();
+    resourcesApi.getSystemResource( PATH, request, response );
+    verify( response, never() ).setHeader( eq( "Cache-Control" ), any( String.class ) );
+  }
+
+  private HttpServletResponse mockResource() {
+    HttpServletResponse response = mock( HttpServletResponse.class );
+    doReturn( true ).when( resourcesApi ).isPublicResource( PATH );
+    doReturn( Response.ok().build() ).when( resourcesApi ).readPluginFile( PATH, response );
+    doReturn( "3600" ).when( resourcesApi ).getMaxAge();
+    doNothing().when( resourcesApi ).setCorsHeaders( request, response );
+    return response;
+  }
+}
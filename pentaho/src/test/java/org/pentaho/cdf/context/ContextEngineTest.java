@@ -21,11 +21,13 @@ import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.pentaho.cdf.context.autoinclude.AutoInclude;
+import org.pentaho.cdf.context.autoinclude.AutoIncludeCache;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.engine.security.SecurityParameterProvider;
 import pt.webdetails.cpf.repository.api.IReadAccess;
 import pt.webdetails.cpf.repository.api.IUserContentAccess;
 
+import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -35,6 +37,9 @@ import java.util.Map;
 import static java.util.Arrays.asList;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
@@ -122,6 +127,26 @@ public class ContextEngineTest {
     assertTrue( jsonObject1.has( "sessionAttributes" ) );
   }
 
+  @Test
+  public void buildContextWithoutAutoIncludesTest() throws Exception {
+    String path = "/public/admin/myDash.xcdf";
+    Document doc = mock( Document.class );
+    doReturn( doc ).when( contextEngine ).getConfigFile();
+    doReturn( new JSONObject( "{ user: 'admin'}" ) ).when( contextEngine ).processSessionAttributes( doc );
+    doReturn( new Locale( "EN" ) ).when( contextEngine ).getLocale();
+    doReturn( mock( SecurityParameterProvider.class ) ).when( contextEngine ).getSecurityParams();
+    doReturn( false ).when( contextEngine ).getLegacyStructure();
+    IPentahoSession session = mock( IPentahoSession.class );
+    doReturn( session ).when( contextEngine ).getUserSession();
+
+    JSONObject result = contextEngine.buildContext( path, "admin", new HashMap<String, String>(), 1234, false );
+
+    verify( contextEngine, never() ).processAutoIncludes( anyString(), any( Document.class ) );
+    assertEquals( 0, result.getJSONObject( "queryData" ).length() );
+    assertTrue( result.has( "sessionAttributes" ) );
+    assertEquals( path, result.get( "path" ) );
+  }
+
   @Test
   public void processAutoIncludesTest() throws Exception {
     String fullPath = "/public/admin/myDash.xcdf";
@@ -148,33 +173,67 @@ public class ContextEngineTest {
         autoInclude1, autoInclude2, autoInclude3
     ) );
     doReturn( autoIncludeList ).when( contextEngine ).getAutoIncludes( doc );
-    doNothing().when( contextEngine ).addCdaQuery( any( JSONObject.class ), anyString() );
+    doNothing().when( contextEngine ).addCdaQueries( any( JSONObject.class ), anyList() );
 
     contextEngine.processAutoIncludes( fullPath, doc );
 
     verify( contextEngine, times( 1 ) ).cdaExists();
     verify( autoIncludesFolder, times( 1 ) ).fileExists( "/public/cdf/includes" );
-    verify( contextEngine, times( 3 ) ).addCdaQuery( any( JSONObject.class ), anyString() );
+    // all the files at once
+    verify( contextEngine, times( 1 ) ).addCdaQueries( any( JSONObject.class ), eq( asList(
+        "/public/cdf/includes/myDash1.cda", "/public/cdf/includes/myDash2.cda",
+        "/public/cdf/includes/myDash3.cda" ) ) );
+    verify( contextEngine, never() ).addCdaQuery( any( JSONObject.class ), anyString() );
   }
 
   @Test
   public void getAutoIncludesTest() throws Exception {
-    Document doc = mock( Document.class );
     IUserContentAccess readAccess = mock( IUserContentAccess.class );
+    AutoInclude autoInclude = mock( AutoInclude.class );
 
-    List<AutoInclude> autoIncludeList = new ArrayList<AutoInclude>();
+    List<AutoInclude> autoIncludeList = new ArrayList<AutoInclude>( asList( autoInclude ) );
     doReturn( autoIncludeList ).when( contextEngine ).buildAutoIncludeList( any( Document.class ),
         any( IReadAccess.class ) );
     doReturn( readAccess ).when( contextEngine ).getUserContentAccess( anyString() );
     doReturn( "/public/cdf" ).when( contextEngine ).getPluginRepositoryDir();
+    IReadAccess systemReader = stubSystemConfig( "<context/>", 10L );
 
-    contextEngine.getAutoIncludes( doc );
+    // built along with the configuration
+    Document doc = contextEngine.getConfigFile();
     verify( contextEngine, times( 1 ) ).getUserContentAccess( anyString() );
     verify( contextEngine, times( 1 ) ).buildAutoIncludeList( any( Document.class ), any( IReadAccess.class ) );
 
-    contextEngine.getAutoIncludes( doc );
+    assertEquals( autoIncludeList, contextEngine.getAutoIncludes( doc ) );
+    assertEquals( autoIncludeList, contextEngine.getAutoIncludes( doc ) );
     verify( contextEngine, times( 1 ) ).getUserContentAccess( anyString() );
     verify( contextEngine, times( 1 ) ).buildAutoIncludeList( any( Document.class ), any( IReadAccess.class ) );
+
+    // file changed: a request holding the previous configuration does not replace the new auto-includes
+    doReturn( 11L ).when( systemReader ).getLastModified( "dashboardContext.xml" );
+    List<AutoInclude> changedList = new ArrayList<AutoInclude>();
+    doReturn( changedList ).when( contextEngine ).buildAutoIncludeList( any( Document.class ),
+        any( IReadAccess.class ) );
+    Document changed = contextEngine.getConfigFile();
+    assertNotSame( doc, changed );
+    doReturn( autoIncludeList ).when( contextEngine ).buildAutoIncludeList( same( doc ), any( IReadAccess.class ) );
+    assertEquals( autoIncludeList, contextEngine.getAutoIncludes( doc ) );
+    assertSame( contextEngine.getContextConfig().getAutoIncludes(), contextEngine.getAutoIncludes( changed ) );
+    assertTrue( contextEngine.getAutoIncludes( changed ).isEmpty() );
+  }
+
+  private IReadAccess stubSystemConfig( final String config, long lastModified ) throws Exception {
+    IReadAccess repositoryReader = mock( IReadAccess.class );
+    IReadAccess systemReader = mock( IReadAccess.class );
+    doReturn( repositoryReader ).when( contextEngine ).getConfigReader( false );
+    doReturn( systemReader ).when( contextEngine ).getConfigReader( true );
+    doReturn( true ).when( systemReader ).fileExists( "dashboardContext.xml" );
+    doReturn( lastModified ).when( systemReader ).getLastModified( "dashboardContext.xml" );
+    when( systemReader.getFileInputStream( "dashboardContext.xml" ) ).thenAnswer( new Answer<Object>() {
+      @Override public Object answer( InvocationOnMock invocation ) throws Throwable {
+        return new ByteArrayInputStream( config.getBytes( "UTF-8" ) );
+      }
+    } );
+    return systemReader;
   }
 
   @Test
@@ -292,4 +351,149 @@ public class ContextEngineTest {
     assertTrue( jsonObject.has( "TestParam2" ) );
     assertTrue( jsonObject.has( "TestParam3" ) );
   }
+
+  @Test
+  public void getContextInputsTest() throws Exception {
+    String path = "/public/admin/myDash.xcdf";
+    Document doc = mock( Document.class );
+    doReturn( doc ).when( contextEngine ).getConfigFile();
+    doReturn( new JSONObject( "{ user: 'admin'}" ) ).when( contextEngine ).processSessionAttributes( doc );
+    doReturn( new Locale( "EN" ) ).when( contextEngine ).getLocale();
+    doReturn( mock( SecurityParameterProvider.class ) ).when( contextEngine ).getSecurityParams();
+    doReturn( false ).when( contextEngine ).getLegacyStructure();
+    IPentahoSession session = mock( IPentahoSession.class );
+    doReturn( "admin" ).when( session ).getName();
+    doReturn( session ).when( contextEngine ).getUserSession();
+    doReturn( new ArrayList<AutoInclude>() ).when( contextEngine ).getAutoIncludes( doc );
+
+    Map<String, String> params = new HashMap<String, String>();
+    params.put( "paramTestParam1", "paramTestParam1" );
+
+    String inputs = contextEngine.getContextInputs( path, params, 1234 );
+    assertEquals( inputs, contextEngine.getContextInputs( path, params, 1234 ) );
+    params.put( "paramTestParam1", "changed" );
+    assertFalse( inputs.equals( contextEngine.getContextInputs( path, params, 1234 ) ) );
+
+    // auto-include query results can't be told without running the queries
+    AutoInclude autoInclude = mock( AutoInclude.class );
+    doReturn( true ).when( autoInclude ).canInclude( path );
+    doReturn( "/public/cdf/includes/myDash.cda" ).when( autoInclude ).getCdaPath();
+    doReturn( new ArrayList<AutoInclude>( asList( autoInclude ) ) ).when( contextEngine ).getAutoIncludes( doc );
+    assertNull( contextEngine.getContextInputs( path, params, 1234 ) );
+  }
+
+  @Test
+  public void getContextConfigTest() throws Exception {
+    String config = "<context><sessionattributes><attribute name=\"key\">attr</attribute></sessionattributes>"
+        + "</context>";
+    doReturn( new ArrayList<AutoInclude>() ).when( contextEngine ).buildAutoIncludeList( any( Document.class ),
+        any( IReadAccess.class ) );
+    doReturn( mock( IUserContentAccess.class ) ).when( contextEngine ).getUserContentAccess( anyString() );
+    doReturn( "/public/cdf" ).when( contextEngine ).getPluginRepositoryDir();
+    IReadAccess systemReader = stubSystemConfig( config, 1L );
+
+    ContextConfig contextConfig = contextEngine.getContextConfig();
+    assertTrue( contextConfig.isSystem() );
+    assertEquals( "attr", contextConfig.getSessionAttributes().get( "key" ) );
+    assertSame( contextConfig, contextEngine.getContextConfig() );
+    assertSame( contextConfig.getDocument(), contextEngine.getConfigFile() );
+    verify( systemReader, times( 1 ) ).getFileInputStream( "dashboardContext.xml" );
+
+    // file changed
+    doReturn( 2L ).when( systemReader ).getLastModified( "dashboardContext.xml" );
+    ContextConfig changed = contextEngine.getContextConfig();
+    assertNotSame( contextConfig, changed );
+    assertEquals( 2L, changed.getLastModified() );
+    verify( systemReader, times( 2 ) ).getFileInputStream( "dashboardContext.xml" );
+
+    IPentahoSession session = mock( IPentahoSession.class );
+    doReturn( "value" ).when( session ).getAttribute( "attr" );
+    doReturn( session ).when( contextEngine ).getUserSession();
+    assertEquals( "value", contextEngine.processSessionAttributes( changed.getDocument() ).get( "key" ) );
+  }
+
+  @Test
+  public void processCachedAutoIncludesTest() throws Exception {
+    AutoIncludeCache.clear();
+    String fullPath = "/public/admin/myDash.xcdf";
+    final String cdaPath = "/public/cdf/includes/admin/calendar.cda";
+    Document doc = mock( Document.class );
+
+    doReturn( true ).when( contextEngine ).cdaExists();
+    doReturn( "/public/cdf" ).when( contextEngine ).getPluginRepositoryDir();
+    IReadAccess autoIncludesFolder = mock( IUserContentAccess.class );
+    doReturn( true ).when( autoIncludesFolder ).fileExists( "/public/cdf/includes" );
+    doReturn( autoIncludesFolder ).when( contextEngine ).getUserContentAccess( null );
+
+    AutoInclude autoInclude = mock( AutoInclude.class );
+    doReturn( true ).when( autoInclude ).canInclude( fullPath );
+    doReturn( cdaPath ).when( autoInclude ).getCdaPath();
+    doReturn( 60000L ).when( autoInclude ).getCacheTtl();
+    doReturn( AutoIncludeCache.SCOPE_ROLES ).when( autoInclude ).getCacheScope();
+    doReturn( new ArrayList<AutoInclude>( asList( autoInclude ) ) ).when( contextEngine ).getAutoIncludes( doc );
+    doAnswer( new Answer<Object>() {
+      @Override public Object answer( InvocationOnMock invocation ) throws Throwable {
+        ( (JSONObject) invocation.getArguments()[ 0 ] ).put( "days", new JSONObject( "{\"resultset\": []}" ) );
+        return null;
+      }
+    } ).when( contextEngine ).addCdaQuery( any( JSONObject.class ), eq( cdaPath ) );
+
+    SecurityParameterProvider securityParams = mock( SecurityParameterProvider.class );
+    doReturn( securityParams ).when( contextEngine ).getSecurityParams();
+    doReturn( new ArrayList<String>( asList( "master", "administrator" ) ) ).when( securityParams )
+        .getParameter( "principalRoles" );
+
+    assertTrue( contextEngine.processAutoIncludes( fullPath, doc ).has( "days" ) );
+    // same roles, in any order, share the results
+    doReturn( new ArrayList<String>( asList( "administrator", "master" ) ) ).when( securityParams )
+        .getParameter( "principalRoles" );
+    assertTrue( contextEngine.processAutoIncludes( fullPath, doc ).has( "days" ) );
+    verify( contextEngine, times( 1 ) ).addCdaQuery( any( JSONObject.class ), eq( cdaPath ) );
+
+    doReturn( new ArrayList<String>( asList( "guest" ) ) ).when( securityParams ).getParameter( "principalRoles" );
+    assertTrue( contextEngine.processAutoIncludes( fullPath, doc ).has( "days" ) );
+    verify( contextEngine, times( 2 ) ).addCdaQuery( any( JSONObject.class ), eq( cdaPath ) );
+    AutoIncludeCache.clear();
+  }
+
+  @Test
+  public void getIncludedAutoIncludesTest() throws Exception {
+    String path = "/public/admin/myDash.xcdf";
+    AutoInclude autoInclude1 = mock( AutoInclude.class );
+    AutoInclude autoInclude2 = mock( AutoInclude.class );
+    doReturn( true ).when( autoInclude1 ).canInclude( path );
+    doReturn( false ).when( autoInclude2 ).canInclude( path );
+    doReturn( "/public/cdf/includes/admin/myDash.cda" ).when( autoInclude1 ).getCdaPath();
+    List<AutoInclude> autoIncludeList = new ArrayList<AutoInclude>( asList( autoInclude1, autoInclude2 ) );
+    doReturn( autoIncludeList ).when( contextEngine ).buildAutoIncludeList( any( Document.class ),
+        any( IReadAccess.class ) );
+    doReturn( mock( IUserContentAccess.class ) ).when( contextEngine ).getUserContentAccess( anyString() );
+    doReturn( "/public/cdf" ).when( contextEngine ).getPluginRepositoryDir();
+    IReadAccess systemReader = stubSystemConfig( "<context/>", 20L );
+    Document doc = contextEngine.getConfigFile();
+
+    assertEquals( asList( "/public/cdf/includes/admin/myDash.cda" ),
+        contextEngine.getAutoIncludeCdaPaths( path, doc ) );
+    assertEquals( asList( autoInclude1 ), contextEngine.getIncludedAutoIncludes( path, doc ) );
+    verify( autoInclude1, times( 1 ) ).canInclude( path );
+    verify( autoInclude2, times( 1 ) ).canInclude( path );
+
+    // matched again once the configuration is read again
+    doReturn( 21L ).when( systemReader ).getLastModified( "dashboardContext.xml" );
+    List<AutoInclude> rebuilt = new ArrayList<AutoInclude>( asList( autoInclude2 ) );
+    doReturn( rebuilt ).when( contextEngine ).buildAutoIncludeList( any( Document.class ),
+        any( IReadAccess.class ) );
+    Document changed = contextEngine.getConfigFile();
+    assertTrue( contextEngine.getIncludedAutoIncludes( path, changed ).isEmpty() );
+    verify( autoInclude2, times( 2 ) ).canInclude( path );
+
+    // a request still holding the previous configuration is matched without being kept
+    doReturn( autoIncludeList ).when( contextEngine ).buildAutoIncludeList( same( doc ), any( IReadAccess.class ) );
+    assertEquals( asList( autoInclude1 ), contextEngine.getIncludedAutoIncludes( path, doc ) );
+    assertEquals( asList( autoInclude1 ), contextEngine.getIncludedAutoIncludes( path, doc ) );
+    verify( autoInclude1, times( 3 ) ).canInclude( path );
+    verify( autoInclude2, times( 4 ) ).canInclude( path );
+    assertTrue( contextEngine.getIncludedAutoIncludes( path, changed ).isEmpty() );
+    verify( autoInclude2, times( 4 ) ).canInclude( path );
+  }
 }
@@ -0,0 +1,165 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.context.autoinclude;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import org.pentaho.cdf.utils.JsonUtil;
+
+public class AutoIncludeCacheTest extends TestCase {
+
+  private static final String CDA = "/public/cdf/includes/dash/calendar.cda";
+
+  @After
+  public void tearDown() {
+    AutoIncludeCache.clear();
+  }
+
+  @Test
+  public void testSharedWithinScope() throws Exception {
+    CountingLoader loader = new CountingLoader( "{\"days\": {\"resultset\": []}}" );
+
+    JSONObject result = AutoIncludeCache.get( CDA, "roles:[admin]", 60000, loader );
+    assertTrue( result.has( "days" ) );
+    assertSame( result, AutoIncludeCache.get( CDA, "roles:[admin]", 60000, loader ) );
+    assertEquals( 1, loader.count.get() );
+
+    AutoIncludeCache.get( CDA, "roles:[guest]", 60000, loader );
+    assertEquals( 2, loader.count.get() );
+  }
+
+  @Test
+  public void testErrorsNotKept() throws Exception {
+    final JSONObject failed = new JSONObject();
+    failed.put( "days", JsonUtil.makeJsonErrorResponse( "Query timed out", false ) );
+    final AtomicInteger count = new AtomicInteger();
+    AutoIncludeCache.Loader loader = new AutoIncludeCache.Loader() {
+      @Override
+      public JSONObject load() throws Exception {
+        count.incrementAndGet();
+        return failed;
+      }
+    };
+
+    assertSame( failed, AutoIncludeCache.get( CDA, "all", 60000, loader ) );
+    AutoIncludeCache.get( CDA, "all", 60000, loader );
+    assertEquals( 2, count.get() );
+  }
+
+  @Test
+  public void testConcurrentRequestsShareExecution() throws Exception {
+    final CountDownLatch release = new CountDownLatch( 1 );
+    final AtomicInteger count = new AtomicInteger();
+    final AutoIncludeCache.Loader loader = new AutoIncludeCache.Loader() {
+      @Override
+      public JSONObject load() throws Exception {
+        count.incrementAndGet();
+        release.await();
+        return new JSONObject( "{\"days\": {\"resultset\": []}}" );
+      }
+    };
+    final List<JSONObject> results = new ArrayList<JSONObject>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for ( int i = 0; i < 8; i++ ) {
+      Thread thread = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          try {
+            JSONObject result = AutoIncludeCache.get( CDA, "all", 60000, loader );
+            synchronized ( results ) {
+              results.add( result );
+            }
+          } catch ( Exception e ) {
+            fail( e.getMessage() );
+          }
+        }
+      } );
+      threads.add( thread );
+      thread.start();
+    }
+    Thread.sleep( 100 );
+    release.countDown();
+    for ( Thread thread : threads ) {
+      thread.join( 5000 );
+    }
+
+    assertEquals( 1, count.get() );
+    assertEquals( 8, results.size() );
+    for ( JSONObject result : results ) {
+      assertSame( results.get( 0 ), result );
+    }
+  }
+
+  @Test
+  public void testRefreshedBeforeExpiry() throws Exception {
+    CountingLoader loader = new CountingLoader( "{\"days\": {\"resultset\": []}}" );
+
+    JSONObject first = AutoIncludeCache.get( CDA, "all", 400, loader );
+    Thread.sleep( 320 );
+    // still served while read again in the background
+    assertSame( first, AutoIncludeCache.get( CDA, "all", 400, loader ) );
+    for ( int i = 0; i < 50 && loader.count.get() < 2; i++ ) {
+      Thread.sleep( 10 );
+    }
+    assertEquals( 2, loader.count.get() );
+    Thread.sleep( 50 );
+    assertNotSame( first, AutoIncludeCache.get( CDA, "all", 400, loader ) );
+    assertEquals( 2, loader.count.get() );
+  }
+
+  @Test
+  public void testRefreshNotRunWithoutPermits() throws Exception {
+    CountingLoader loader = new CountingLoader( "{\"days\": {\"resultset\": []}}" );
+
+    JSONObject first = AutoIncludeCache.get( CDA, "all", 400, loader );
+    Thread.sleep( 320 );
+    int permits = AutoIncludeCache.refreshPermits.drainPermits();
+    try {
+      // too many refreshes running: served as is, not read in the request thread
+      assertSame( first, AutoIncludeCache.get( CDA, "all", 400, loader ) );
+      assertEquals( 1, loader.count.get() );
+    } finally {
+      AutoIncludeCache.refreshPermits.release( permits );
+    }
+
+    // next request tries again
+    assertSame( first, AutoIncludeCache.get( CDA, "all", 400, loader ) );
+    for ( int i = 0; i < 50 && loader.count.get() < 2; i++ ) {
+      Thread.sleep( 10 );
+    }
+    assertEquals( 2, loader.count.get() );
+  }
+
+  private static class CountingLoader implements AutoIncludeCache.Loader {
+    private final String result;
+    private final AtomicInteger count = new AtomicInteger();
+
+    private CountingLoader( String result ) {
+      this.result = result;
+    }
+
+    @Override
+    public JSONObject load() throws Exception {
+      count.incrementAndGet();
+      return new JSONObject( result );
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.environment.broker;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static java.util.Arrays.asList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class PentahoCdfInterPluginBrokerTest extends TestCase {
+
+  private static final String CDA = "/public/cdf/includes/dash/queries.cda";
+
+  PentahoCdfInterPluginBroker broker;
+
+  @Before
+  public void setUp() {
+    broker = spy( new PentahoCdfInterPluginBroker() );
+    doReturn( new ArrayList<String>( asList( "fast", "slow", "failing" ) ) ).when( broker ).listCdaQueries( CDA );
+    doReturn( "{\"resultset\": [[1]]}" ).when( broker ).executeCdaQuery( CDA, "fast" );
+    doAnswer( new Answer<String>() {
+      @Override
+      public String answer( InvocationOnMock invocation ) throws Throwable {
+        Thread.sleep( 2000 );
+        return "{\"resultset\": [[2]]}";
+      }
+    } ).when( broker ).executeCdaQuery( CDA, "slow" );
+    doAnswer( new Answer<String>() {
+      @Override
+      public String answer( InvocationOnMock invocation ) throws Throwable {
+        throw new IllegalStateException( "CDA error" );
+      }
+    } ).when( broker ).executeCdaQuery( CDA, "failing" );
+  }
+
+  @Test
+  public void testAddCdaQueriesConcurrently() throws Exception {
+    broker.setQueryTimeouts( 200, 1000 );
+    JSONObject queries = new JSONObject();
+
+    long start = System.currentTimeMillis();
+    broker.addCdaQueries( queries, CDA );
+    assertTrue( System.currentTimeMillis() - start < 2000 );
+
+    assertEquals( 1, queries.getJSONObject( "fast" ).getJSONArray( "resultset" ).getJSONArray( 0 ).getInt( 0 ) );
+    assertEquals( "error", queries.getJSONObject( "slow" ).getString( "status" ) );
+    assertEquals( "Query timed out", queries.getJSONObject( "slow" ).getString( "message" ) );
+    assertEquals( "error", queries.getJSONObject( "failing" ).getString( "status" ) );
+    assertEquals( "Query failed", queries.getJSONObject( "failing" ).getString( "message" ) );
+  }
+
+  @Test
+  public void testAddCdaQueriesOverallTimeout() throws Exception {
+    broker.setQueryTimeouts( 5000, 200 );
+    JSONObject queries = new JSONObject();
+
+    long start = System.currentTimeMillis();
+    broker.addCdaQueries( queries, CDA );
+    assertTrue( System.currentTimeMillis() - start < 2000 );
+    assertTrue( queries.has( "fast" ) );
+    assertEquals( "Query timed out", queries.getJSONObject( "slow" ).getString( "message" ) );
+  }
+
+  @Test
+  public void testAddCdaQueriesOfSeveralFiles() throws Exception {
+    final String otherCda = "/public/cdf/includes/dash/other.cda";
+    doReturn( new ArrayList<String>( asList( "slow" ) ) ).when( broker ).listCdaQueries( CDA );
+    doReturn( new ArrayList<String>( asList( "slowToo" ) ) ).when( broker ).listCdaQueries( otherCda );
+    doAnswer( new Answer<String>() {
+      @Override
+      public String answer( InvocationOnMock invocation ) throws Throwable {
+        Thread.sleep( 2000 );
+        return "{\"resultset\": [[3]]}";
+      }
+    } ).when( broker ).executeCdaQuery( otherCda, "slowToo" );
+    broker.setQueryTimeouts( 5000, 500 );
+    JSONObject queries = new JSONObject();
+
+    // one overall timeout for the queries of both files, not one after the other
+    long start = System.currentTimeMillis();
+    broker.addCdaQueries( queries, asList( CDA, otherCda ) );
+    assertTrue( System.currentTimeMillis() - start < 900 );
+
+    assertEquals( "Query timed out", queries.getJSONObject( "slow" ).getString( "message" ) );
+    assertEquals( "Query timed out", queries.getJSONObject( "slowToo" ).getString( "message" ) );
+  }
+
+  @Test
+  public void testAddCdaQueriesSequentially() throws Exception {
+    doReturn( new ArrayList<String>( asList( "fast" ) ) ).when( broker ).listCdaQueries( CDA );
+    JSONObject queries = new JSONObject();
+
+    broker.addCdaQueries( queries, CDA );
+
+    verify( broker, times( 1 ) ).executeCdaQuery( CDA, "fast" );
+    assertTrue( queries.has( "fast" ) );
+  }
+
+  @Test
+  public void testAddCdaQueriesTooManyRunning() throws Exception {
+    broker.setQueryTimeouts( 200, 1000 );
+    JSONObject queries = new JSONObject();
+
+    int permits = PentahoCdfInterPluginBroker.runningQueries.drainPermits();
+    try {
+      broker.addCdaQueries( queries, CDA );
+    } finally {
+      PentahoCdfInterPluginBroker.runningQueries.release( permits );
+    }
+
+    // never run in the request thread
+    verify( broker, never() ).executeCdaQuery( anyString(), anyString() );
+    assertEquals( "Too many queries running", queries.getJSONObject( "fast" ).getString( "message" ) );
+    assertEquals( "error", queries.getJSONObject( "slow" ).getString( "status" ) );
+  }
+}
@@ -17,12 +17,16 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Locale;
 
 import junit.framework.TestCase;
 import org.json.JSONException;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.pentaho.cdf.environment.templater.ITemplater;
 import pt.webdetails.cpf.localization.MessageBundlesHelper;
 import pt.webdetails.cpf.repository.api.IBasicFile;
@@ -31,9 +35,14 @@ import pt.webdetails.cpf.repository.api.IReadAccess;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -45,6 +54,11 @@ public class CdfHtmlRendererTest extends TestCase {
   @Before
   public void setUp() {
     cdfHtmlRenderer = spy( new CdfHtmlRenderer() );
+    CdfHtmlRenderer.clearTemplateCache();
+    CdfHtmlRenderer.clearRenderCache();
+    CdfHtmlRenderer.clearMessagesCache();
+    doReturn( Locale.US ).when( cdfHtmlRenderer ).getLocale();
+    doReturn( null ).when( cdfHtmlRenderer ).getMessagesVersion( any() );
     try {
       doReturn( "" ).when( cdfHtmlRenderer )
         .getConfiguration(  any(), Mockito.<HashMap>any(), anyInt() );
@@ -98,7 +112,7 @@ public class CdfHtmlRendererTest extends TestCase {
     doReturn( mbh ).when( cdfHtmlRenderer ).getMessageBundlesHelper( any() );
 
     doNothing().when( cdfHtmlRenderer )
-      .getHeadersInternal( any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
+      .getHeadersInternal( any(), any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
     doNothing().when( cdfHtmlRenderer ).generateContext( Mockito.<OutputStream>any(), Mockito.<HashMap>any(), anyInt() );
     doNothing().when( cdfHtmlRenderer ).generateStorage( Mockito.<OutputStream>any(), any() );
 
@@ -106,7 +120,7 @@ public class CdfHtmlRendererTest extends TestCase {
       /*isRequire*/true, /*loadTheme*/false );
 
     verify( cdfHtmlRenderer, times( 0 ) )
-      .getHeadersInternal( any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
+      .getHeadersInternal( any(), any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
     verify( cdfHtmlRenderer, times( 0 ) ).generateContext( Mockito.<OutputStream>any(), Mockito.<HashMap>any(), anyInt() );
     verify( cdfHtmlRenderer, times( 0 ) ).generateStorage( Mockito.<OutputStream>any(), any() );
     verify( cdfHtmlRenderer, times( 1 ) ).getWebContextHeader( Mockito.<OutputStream>any(), anyBoolean() );
@@ -115,7 +129,7 @@ public class CdfHtmlRendererTest extends TestCase {
       /*isRequire*/false, /*loadTheme*/false );
 
     verify( cdfHtmlRenderer, times( 1 ) )
-      .getHeadersInternal( any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
+      .getHeadersInternal( any(), any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
     verify( cdfHtmlRenderer, times( 1 ) ).generateContext( Mockito.<OutputStream>any(), any( HashMap.class ), anyInt() );
     verify( cdfHtmlRenderer, times( 1 ) ).generateStorage( Mockito.<OutputStream>any(), any() );
     verify( cdfHtmlRenderer, times( 1 ) ).getWebContextHeader( Mockito.<OutputStream>any(), anyBoolean() );
@@ -124,7 +138,7 @@ public class CdfHtmlRendererTest extends TestCase {
       /*isRequire*/true, /*loadTheme*/true );
 
     verify( cdfHtmlRenderer, times( 1 ) )
-      .getHeadersInternal( any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
+      .getHeadersInternal( any(), any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
     verify( cdfHtmlRenderer, times( 1 ) ).generateContext( Mockito.<OutputStream>any(), any( HashMap.class ), anyInt() );
     verify( cdfHtmlRenderer, times( 1 ) ).generateStorage( Mockito.<OutputStream>any(), any() );
     verify( cdfHtmlRenderer, times( 2 ) ).getWebContextHeader( Mockito.<OutputStream>any(), anyBoolean() );
@@ -133,9 +147,328 @@ public class CdfHtmlRendererTest extends TestCase {
       /*isRequire*/false, /*loadTheme*/true );
 
     verify( cdfHtmlRenderer, times( 2 ) )
-      .getHeadersInternal( any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
+      .getHeadersInternal( any(), any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
     verify( cdfHtmlRenderer, times( 2 ) ).generateContext( Mockito.<OutputStream>any(), Mockito.<HashMap>any(), anyInt() );
     verify( cdfHtmlRenderer, times( 2 ) ).generateStorage( Mockito.<OutputStream>any(), any() );
     verify( cdfHtmlRenderer, times( 2 ) ).getWebContextHeader( Mockito.<OutputStream>any(), anyBoolean() );
   }
+
+  @Test
+  public void testExecuteCachesOuterTemplate() throws Exception {
+    OutputStream outputStream = mock( OutputStream.class );
+    IBasicFile basicFile = mock( IBasicFile.class );
+    HashMap<String, String> parameterMap = new HashMap<String, String>();
+
+    IBasicFile templateFile = mock( IBasicFile.class );
+    InputStream templateContent = mock( InputStream.class );
+    doReturn( templateContent ).when( templateFile ).getContents();
+
+    IReadAccess systemAccess = mock( IReadAccess.class );
+    doReturn( systemAccess ).when( cdfHtmlRenderer ).getPluginSystemReader( null );
+    IReadAccess pluginRepoAccess = mock( IReadAccess.class );
+    doReturn( true ).when( pluginRepoAccess ).fileExists( "template-dashboard-myStyle.html" );
+    doReturn( templateFile ).when( pluginRepoAccess ).fetchFile( "template-dashboard-myStyle.html" );
+    doReturn( 1L ).when( pluginRepoAccess ).getLastModified( "template-dashboard-myStyle.html" );
+    doReturn( pluginRepoAccess ).when( cdfHtmlRenderer ).getPluginRepositoryReader( "templates/" );
+    doReturn( "testContent" ).when( cdfHtmlRenderer ).getContentString( templateContent );
+
+    ITemplater templater = mock( ITemplater.class );
+    doReturn( "<head></head>" ).when( templater ).getTemplateSection( any(), any( ITemplater.Section.class ) );
+    doReturn( templater ).when( cdfHtmlRenderer ).getTemplater();
+    doReturn( "" ).when( cdfHtmlRenderer ).updateUserLanguageKey( any() );
+    doReturn( "" ).when( cdfHtmlRenderer ).processi18nTags( any(), Mockito.<ArrayList>any() );
+    doReturn( "" ).when( cdfHtmlRenderer ).getDashboardContent( Mockito.<InputStream>any(), Mockito.<ArrayList>any() );
+    doReturn( "/public/cdf" ).when( cdfHtmlRenderer ).getPluginRepositoryDir();
+    MessageBundlesHelper mbh = mock( MessageBundlesHelper.class );
+    doReturn( "<head></head>" ).when( mbh ).replaceParameters( any(), Mockito.<ArrayList>any() );
+    doReturn( mbh ).when( cdfHtmlRenderer ).getMessageBundlesHelper( any() );
+    doNothing().when( cdfHtmlRenderer )
+      .getHeadersInternal( any(), any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
+    doNothing().when( cdfHtmlRenderer ).generateContext( Mockito.<OutputStream>any(), Mockito.<HashMap>any(), anyInt() );
+    doNothing().when( cdfHtmlRenderer ).generateStorage( Mockito.<OutputStream>any(), any() );
+
+    cdfHtmlRenderer.execute( outputStream, basicFile, "myStyle", "myMessages", parameterMap, "admin", 1234, false,
+      false );
+    cdfHtmlRenderer.execute( outputStream, basicFile, "myStyle", "myMessages", parameterMap, "admin", 1234, false,
+      false );
+
+    verify( cdfHtmlRenderer, times( 1 ) ).getContentString( templateContent );
+    verify( mbh, times( 2 ) ).replaceParameters( any(), Mockito.<ArrayList>any() );
+
+    // template changed
+    doReturn( 2L ).when( pluginRepoAccess ).getLastModified( "template-dashboard-myStyle.html" );
+    cdfHtmlRenderer.execute( outputStream, basicFile, "myStyle", "myMessages", parameterMap, "admin", 1234, false,
+      false );
+
+    verify( cdfHtmlRenderer, times( 2 ) ).getContentString( templateContent );
+  }
+
+  @Test
+  public void testExecuteEarlyFlush() throws Exception {
+    OutputStream outputStream = mock( OutputStream.class );
+    IBasicFile basicFile = mock( IBasicFile.class );
+    HashMap<String, String> parameterMap = new HashMap<String, String>();
+
+    IBasicFile templateFile = mock( IBasicFile.class );
+    IReadAccess systemAccess = mock( IReadAccess.class );
+    doReturn( true ).when( systemAccess ).fileExists( "template-dashboard.html" );
+    doReturn( templateFile ).when( systemAccess ).fetchFile( "template-dashboard.html" );
+    doReturn( systemAccess ).when( cdfHtmlRenderer ).getPluginSystemReader( null );
+    doReturn( mock( IReadAccess.class ) ).when( cdfHtmlRenderer ).getPluginRepositoryReader( "templates/" );
+    doReturn( "testContent" ).when( cdfHtmlRenderer ).getContentString( any() );
+
+    ITemplater templater = mock( ITemplater.class );
+    doReturn( "<head></head>" ).when( templater ).getTemplateSection( any(), any( ITemplater.Section.class ) );
+    doReturn( templater ).when( cdfHtmlRenderer ).getTemplater();
+    doReturn( "" ).when( cdfHtmlRenderer ).updateUserLanguageKey( any() );
+    doReturn( "" ).when( cdfHtmlRenderer ).processi18nTags( any(), Mockito.<ArrayList>any() );
+    doReturn( "" ).when( cdfHtmlRenderer ).getDashboardContent( Mockito.<InputStream>any(), Mockito.<ArrayList>any() );
+    doReturn( "/public/cdf" ).when( cdfHtmlRenderer ).getPluginRepositoryDir();
+    MessageBundlesHelper mbh = mock( MessageBundlesHelper.class );
+    doReturn( "<head></head>" ).when( mbh ).replaceParameters( any(), Mockito.<ArrayList>any() );
+    doReturn( mbh ).when( cdfHtmlRenderer ).getMessageBundlesHelper( any() );
+    doNothing().when( cdfHtmlRenderer )
+      .getHeadersInternal( any(), any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
+    doNothing().when( cdfHtmlRenderer ).generateContext( Mockito.<OutputStream>any(), Mockito.<HashMap>any(), anyInt() );
+    doNothing().when( cdfHtmlRenderer ).generateStorage( Mockito.<OutputStream>any(), any() );
+
+    cdfHtmlRenderer.execute( outputStream, basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false );
+    verify( outputStream, never() ).flush();
+
+    cdfHtmlRenderer.setEarlyFlush( true );
+    cdfHtmlRenderer.execute( outputStream, basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false );
+
+    // without the render cache the head is not buffered
+    verify( cdfHtmlRenderer, times( 2 ) )
+      .getHeadersInternal( any(), any(), Mockito.<HashMap>any(), same( outputStream ) );
+    InOrder inOrder = inOrder( cdfHtmlRenderer, outputStream );
+    inOrder.verify( cdfHtmlRenderer )
+      .getHeadersInternal( any(), any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
+    inOrder.verify( outputStream ).flush();
+    inOrder.verify( cdfHtmlRenderer ).generateContext( Mockito.<OutputStream>any(), Mockito.<HashMap>any(), anyInt() );
+  }
+
+  @Test
+  public void testExecuteStages() throws Exception {
+    OutputStream outputStream = mock( OutputStream.class );
+    IBasicFile basicFile = mock( IBasicFile.class );
+    HashMap<String, String> parameterMap = new HashMap<String, String>();
+
+    IBasicFile templateFile = mock( IBasicFile.class );
+    IReadAccess systemAccess = mock( IReadAccess.class );
+    doReturn( true ).when( systemAccess ).fileExists( "template-dashboard.html" );
+    doReturn( templateFile ).when( systemAccess ).fetchFile( "template-dashboard.html" );
+    doReturn( systemAccess ).when( cdfHtmlRenderer ).getPluginSystemReader( null );
+    doReturn( mock( IReadAccess.class ) ).when( cdfHtmlRenderer ).getPluginRepositoryReader( "templates/" );
+    doReturn( "testContent" ).when( cdfHtmlRenderer ).getContentString( any() );
+
+    ITemplater templater = mock( ITemplater.class );
+    doReturn( "<head></head>" ).when( templater ).getTemplateSection( any(), any( ITemplater.Section.class ) );
+    doReturn( templater ).when( cdfHtmlRenderer ).getTemplater();
+    doReturn( "" ).when( cdfHtmlRenderer ).updateUserLanguageKey( any() );
+    doReturn( "" ).when( cdfHtmlRenderer ).processi18nTags( any(), Mockito.<ArrayList>any() );
+    doReturn( "" ).when( cdfHtmlRenderer ).getDashboardContent( Mockito.<InputStream>any(), Mockito.<ArrayList>any() );
+    doReturn( "/public/cdf" ).when( cdfHtmlRenderer ).getPluginRepositoryDir();
+    MessageBundlesHelper mbh = mock( MessageBundlesHelper.class );
+    doReturn( "<head></head>" ).when( mbh ).replaceParameters( any(), Mockito.<ArrayList>any() );
+    doReturn( mbh ).when( cdfHtmlRenderer ).getMessageBundlesHelper( any() );
+    doNothing().when( cdfHtmlRenderer )
+      .getHeadersInternal( any(), any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
+    doNothing().when( cdfHtmlRenderer ).generateStorage( Mockito.<OutputStream>any(), any() );
+    doNothing().when( cdfHtmlRenderer )
+      .generateContextWithoutQueries( Mockito.<OutputStream>any(), Mockito.<HashMap>any(), anyInt() );
+    // slow auto-include queries
+    doAnswer( new Answer<Void>() {
+      @Override
+      public Void answer( InvocationOnMock invocation ) throws Throwable {
+        Thread.sleep( 10000 );
+        return null;
+      }
+    } ).when( cdfHtmlRenderer ).generateContext( Mockito.<OutputStream>any(), Mockito.<HashMap>any(), anyInt() );
+
+    cdfHtmlRenderer.setStageTimeout( 100 );
+    cdfHtmlRenderer.execute( outputStream, basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false );
+
+    verify( cdfHtmlRenderer, times( 1 ) ).generateContext( Mockito.<OutputStream>any(), Mockito.<HashMap>any(),
+      anyInt() );
+    verify( cdfHtmlRenderer, times( 1 ) )
+      .generateContextWithoutQueries( Mockito.<OutputStream>any(), Mockito.<HashMap>any(), anyInt() );
+    verify( cdfHtmlRenderer, times( 1 ) ).generateStorage( Mockito.<OutputStream>any(), any() );
+  }
+
+  @Test
+  public void testExecuteRenderCache() throws Exception {
+    OutputStream outputStream = mock( OutputStream.class );
+    IBasicFile basicFile = mock( IBasicFile.class );
+    doReturn( "/public/dashboard.html" ).when( basicFile ).getFullPath();
+    HashMap<String, String> parameterMap = new HashMap<String, String>();
+
+    IBasicFile templateFile = mock( IBasicFile.class );
+    IReadAccess systemAccess = mock( IReadAccess.class );
+    doReturn( true ).when( systemAccess ).fileExists( "template-dashboard.html" );
+    doReturn( templateFile ).when( systemAccess ).fetchFile( "template-dashboard.html" );
+    doReturn( systemAccess ).when( cdfHtmlRenderer ).getPluginSystemReader( null );
+    doReturn( mock( IReadAccess.class ) ).when( cdfHtmlRenderer ).getPluginRepositoryReader( "templates/" );
+    doReturn( "testContent" ).when( cdfHtmlRenderer ).getContentString( any() );
+
+    ITemplater templater = mock( ITemplater.class );
+    doReturn( "<head></head>" ).when( templater ).getTemplateSection( any(), any( ITemplater.Section.class ) );
+    doReturn( templater ).when( cdfHtmlRenderer ).getTemplater();
+    doReturn( "" ).when( cdfHtmlRenderer ).updateUserLanguageKey( any() );
+    doReturn( "" ).when( cdfHtmlRenderer ).processi18nTags( any(), Mockito.<ArrayList>any() );
+    doReturn( "" ).when( cdfHtmlRenderer ).getDashboardContent( Mockito.<InputStream>any(), Mockito.<ArrayList>any() );
+    doReturn( "/public/cdf" ).when( cdfHtmlRenderer ).getPluginRepositoryDir();
+    MessageBundlesHelper mbh = mock( MessageBundlesHelper.class );
+    doReturn( "<head></head>" ).when( mbh ).replaceParameters( any(), Mockito.<ArrayList>any() );
+    doReturn( mbh ).when( cdfHtmlRenderer ).getMessageBundlesHelper( any() );
+    doNothing().when( cdfHtmlRenderer )
+      .getHeadersInternal( any(), any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
+    doNothing().when( cdfHtmlRenderer ).generateContext( Mockito.<OutputStream>any(), Mockito.<HashMap>any(), anyInt() );
+    doNothing().when( cdfHtmlRenderer ).generateStorage( Mockito.<OutputStream>any(), any() );
+    doReturn( 1L ).when( cdfHtmlRenderer ).getHeadersVersion();
+    doReturn( 1L ).when( cdfHtmlRenderer ).getDashboardVersion( basicFile );
+    doReturn( "/public/cdf/messages.properties:1" ).when( cdfHtmlRenderer ).getMessagesVersion( "/public/cdf" );
+
+    cdfHtmlRenderer.setRenderCache( true );
+    cdfHtmlRenderer.execute( outputStream, basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false );
+    cdfHtmlRenderer.execute( outputStream, basicFile, "", "myMessages", parameterMap, "other", 1234, false, false );
+
+    verify( cdfHtmlRenderer, times( 1 ) )
+      .getDashboardContent( Mockito.<InputStream>any(), Mockito.<ArrayList>any() );
+    verify( cdfHtmlRenderer, times( 1 ) )
+      .getHeadersInternal( any(), any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
+    verify( cdfHtmlRenderer, times( 2 ) ).generateContext( Mockito.<OutputStream>any(), Mockito.<HashMap>any(),
+      anyInt() );
+    verify( cdfHtmlRenderer, times( 1 ) ).generateStorage( Mockito.<OutputStream>any(), eq( "other" ) );
+    // components found once per dashboard version
+    verify( cdfHtmlRenderer, times( 1 ) ).getHeadersInternal( any(), eq( "/public/dashboard.html:1" ),
+      Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
+
+    // dashboard changed
+    doReturn( 2L ).when( cdfHtmlRenderer ).getDashboardVersion( basicFile );
+    cdfHtmlRenderer.execute( outputStream, basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false );
+
+    verify( cdfHtmlRenderer, times( 2 ) )
+      .getDashboardContent( Mockito.<InputStream>any(), Mockito.<ArrayList>any() );
+
+    // message file changed
+    doReturn( "/public/cdf/messages.properties:2" ).when( cdfHtmlRenderer ).getMessagesVersion( "/public/cdf" );
+    cdfHtmlRenderer.execute( outputStream, basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false );
+
+    verify( cdfHtmlRenderer, times( 3 ) )
+      .getDashboardContent( Mockito.<InputStream>any(), Mockito.<ArrayList>any() );
+  }
+
+  @Test
+  public void testGetETag() throws Exception {
+    IBasicFile basicFile = mock( IBasicFile.class );
+    doReturn( "/public/dashboard.html" ).when( basicFile ).getFullPath();
+    doReturn( "/public/dashboard.html" ).when( basicFile ).getPath();
+    HashMap<String, String> parameterMap = new HashMap<String, String>();
+
+    IBasicFile templateFile = mock( IBasicFile.class );
+    IReadAccess systemAccess = mock( IReadAccess.class );
+    doReturn( true ).when( systemAccess ).fileExists( "template-dashboard.html" );
+    doReturn( templateFile ).when( systemAccess ).fetchFile( "template-dashboard.html" );
+    doReturn( systemAccess ).when( cdfHtmlRenderer ).getPluginSystemReader( null );
+    doReturn( mock( IReadAccess.class ) ).when( cdfHtmlRenderer ).getPluginRepositoryReader( "templates/" );
+    doReturn( "testContent" ).when( cdfHtmlRenderer ).getContentString( any() );
+    ITemplater templater = mock( ITemplater.class );
+    doReturn( "<head></head>" ).when( templater ).getTemplateSection( any(), any( ITemplater.Section.class ) );
+    doReturn( templater ).when( cdfHtmlRenderer ).getTemplater();
+    doReturn( "" ).when( cdfHtmlRenderer ).updateUserLanguageKey( any() );
+    doReturn( "" ).when( cdfHtmlRenderer ).processi18nTags( any(), Mockito.<ArrayList>any() );
+    doReturn( 1L ).when( cdfHtmlRenderer ).getHeadersVersion();
+    doReturn( 1L ).when( cdfHtmlRenderer ).getDashboardVersion( basicFile );
+    doReturn( "admin|context" ).when( cdfHtmlRenderer ).getContextInputs( parameterMap, 1234 );
+    doReturn( "{}" ).when( cdfHtmlRenderer ).getStorageInputs( "admin" );
+    doReturn( "/public/messages.properties:1" ).when( cdfHtmlRenderer ).getMessagesVersion( "/public" );
+
+    String etag = cdfHtmlRenderer.getETag( basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false );
+    assertTrue( etag.matches( "W/\"[0-9a-f]{32}\"" ) );
+    assertEquals( etag,
+      cdfHtmlRenderer.getETag( basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false ) );
+    verify( cdfHtmlRenderer, never() ).getDashboardContent( Mockito.<InputStream>any(), Mockito.<ArrayList>any() );
+
+    // user storage changed
+    doReturn( "{\"key\":1}" ).when( cdfHtmlRenderer ).getStorageInputs( "admin" );
+    String storageChanged =
+      cdfHtmlRenderer.getETag( basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false );
+    assertFalse( etag.equals( storageChanged ) );
+
+    // message file changed
+    doReturn( "/public/messages.properties:2" ).when( cdfHtmlRenderer ).getMessagesVersion( any() );
+    String messagesChanged =
+      cdfHtmlRenderer.getETag( basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false );
+    assertFalse( storageChanged.equals( messagesChanged ) );
+
+    // dashboard changed
+    doReturn( 2L ).when( cdfHtmlRenderer ).getDashboardVersion( basicFile );
+    assertFalse( messagesChanged.equals(
+      cdfHtmlRenderer.getETag( basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false ) ) );
+
+    // message files version unknown
+    doReturn( null ).when( cdfHtmlRenderer ).getMessagesVersion( any() );
+    assertNull( cdfHtmlRenderer.getETag( basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false ) );
+
+    // context with auto-include queries
+    doReturn( "/public/messages.properties:2" ).when( cdfHtmlRenderer ).getMessagesVersion( any() );
+    doReturn( null ).when( cdfHtmlRenderer ).getContextInputs( parameterMap, 1234 );
+    assertNull( cdfHtmlRenderer.getETag( basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false ) );
+
+    // dashboard version unknown
+    doReturn( 0L ).when( cdfHtmlRenderer ).getDashboardVersion( basicFile );
+    assertNull( cdfHtmlRenderer.getETag( basicFile, "", "myMessages", parameterMap, "admin", 1234, false, false ) );
+  }
+
+  @Test
+  public void testExecuteCachesLocalizedIntro() throws Exception {
+    OutputStream outputStream = mock( OutputStream.class );
+    IBasicFile basicFile = mock( IBasicFile.class );
+    doReturn( "/public/dashboard.html" ).when( basicFile ).getPath();
+    HashMap<String, String> parameterMap = new HashMap<String, String>();
+
+    IBasicFile templateFile = mock( IBasicFile.class );
+    IReadAccess systemAccess = mock( IReadAccess.class );
+    doReturn( true ).when( systemAccess ).fileExists( "template-dashboard.html" );
+    doReturn( templateFile ).when( systemAccess ).fetchFile( "template-dashboard.html" );
+    doReturn( systemAccess ).when( cdfHtmlRenderer ).getPluginSystemReader( null );
+    doReturn( mock( IReadAccess.class ) ).when( cdfHtmlRenderer ).getPluginRepositoryReader( "templates/" );
+    doReturn( "testContent" ).when( cdfHtmlRenderer ).getContentString( any() );
+    ITemplater templater = mock( ITemplater.class );
+    doReturn( "<head></head>" ).when( templater ).getTemplateSection( any(), any( ITemplater.Section.class ) );
+    doReturn( templater ).when( cdfHtmlRenderer ).getTemplater();
+    doReturn( "" ).when( cdfHtmlRenderer ).updateUserLanguageKey( any() );
+    doReturn( "" ).when( cdfHtmlRenderer ).processi18nTags( any(), Mockito.<ArrayList>any() );
+    doReturn( "" ).when( cdfHtmlRenderer ).getDashboardContent( Mockito.<InputStream>any(), Mockito.<ArrayList>any() );
+    MessageBundlesHelper mbh = mock( MessageBundlesHelper.class );
+    doReturn( "<head></head>" ).when( mbh ).replaceParameters( any(), Mockito.<ArrayList>any() );
+    doReturn( mbh ).when( cdfHtmlRenderer ).getMessageBundlesHelper( any() );
+    doNothing().when( cdfHtmlRenderer )
+      .getHeadersInternal( any(), any(), Mockito.<HashMap>any(), Mockito.<OutputStream>any() );
+    doNothing().when( cdfHtmlRenderer ).generateContext( Mockito.<OutputStream>any(), Mockito.<HashMap>any(), anyInt() );
+    doNothing().when( cdfHtmlRenderer ).generateStorage( Mockito.<OutputStream>any(), any() );
+    doReturn( "/public/messages.properties:1" ).when( cdfHtmlRenderer ).getMessagesVersion( "/public" );
+
+    cdfHtmlRenderer.execute( outputStream, basicFile, "", "messages", parameterMap, "admin", 1234, false, false );
+    cdfHtmlRenderer.execute( outputStream, basicFile, "", "messages", parameterMap, "admin", 1234, false, false );
+    verify( cdfHtmlRenderer, times( 1 ) ).getMessageBundlesHelper( "/public" );
+
+    // message file changed
+    doReturn( "/public/messages.properties:2" ).when( cdfHtmlRenderer ).getMessagesVersion( "/public" );
+    cdfHtmlRenderer.execute( outputStream, basicFile, "", "messages", parameterMap, "admin", 1234, false, false );
+    verify( cdfHtmlRenderer, times( 2 ) ).getMessageBundlesHelper( "/public" );
+
+    // merged message files deleted
+    CdfHtmlRenderer.clearMessagesCache();
+    cdfHtmlRenderer.execute( outputStream, basicFile, "", "messages", parameterMap, "admin", 1234, false, false );
+    verify( cdfHtmlRenderer, times( 3 ) ).getMessageBundlesHelper( "/public" );
+  }
+
+  @Test
+  public void testGetWebRoot() throws Exception {
+    assertNull( CdfHtmlRenderer.getWebRoot( false, "localhost:8080/pentaho", "https" ) );
+    assertEquals( "https://localhost:8080", CdfHtmlRenderer.getWebRoot( true, "localhost:8080/pentaho", "https" ) );
+    assertEquals( "http://localhost", CdfHtmlRenderer.getWebRoot( true, "localhost", "http" ) );
+  }
 }
@@ -0,0 +1,103 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.render;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class RenderStageTest extends TestCase {
+
+  @Test
+  public void testWriteTo() throws Exception {
+    RenderStage stage = RenderStage.start( "test", new RenderStage.Writer() {
+      @Override
+      public void write( OutputStream out ) throws Exception {
+        out.write( "stage".getBytes( "UTF-8" ) );
+      }
+    } );
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    stage.writeTo( out, 5000 );
+
+    assertFalse( stage.isRejected() );
+    assertEquals( "stage", out.toString( "UTF-8" ) );
+  }
+
+  @Test
+  public void testTimeoutCountsFromStart() throws Exception {
+    RenderStage stage = RenderStage.start( "slow", new RenderStage.Writer() {
+      @Override
+      public void write( OutputStream out ) throws Exception {
+        Thread.sleep( 2000 );
+      }
+    } );
+    // e.g. the page head being rendered meanwhile
+    Thread.sleep( 300 );
+
+    long start = System.currentTimeMillis();
+    try {
+      stage.writeTo( new ByteArrayOutputStream(), 400 );
+      fail( "stage should have timed out" );
+    } catch ( TimeoutException e ) {
+      assertTrue( System.currentTimeMillis() - start < 300 );
+    }
+  }
+
+  @Test
+  public void testRejectedWhenTooManyRunning() throws Exception {
+    final CountDownLatch release = new CountDownLatch( 1 );
+    RenderStage.Writer blocked = new RenderStage.Writer() {
+      @Override
+      public void write( OutputStream out ) throws Exception {
+        release.await();
+      }
+    };
+    List<RenderStage> running = new ArrayList<RenderStage>();
+    try {
+      for ( int i = 0; i < RenderStage.MAX_RUNNING_STAGES; i++ ) {
+        running.add( RenderStage.start( "blocked", blocked ) );
+      }
+
+      final AtomicBoolean written = new AtomicBoolean();
+      RenderStage rejected = RenderStage.start( "rejected", new RenderStage.Writer() {
+        @Override
+        public void write( OutputStream out ) throws Exception {
+          written.set( true );
+        }
+      } );
+      assertTrue( rejected.isRejected() );
+      // never generated in the calling thread
+      assertFalse( written.get() );
+      long start = System.currentTimeMillis();
+      try {
+        rejected.writeTo( new ByteArrayOutputStream(), 5000 );
+        fail( "rejected stage should time out" );
+      } catch ( TimeoutException e ) {
+        assertTrue( System.currentTimeMillis() - start < 1000 );
+      }
+    } finally {
+      release.countDown();
+      for ( RenderStage stage : running ) {
+        stage.writeTo( new ByteArrayOutputStream(), 5000 );
+      }
+    }
+  }
+}
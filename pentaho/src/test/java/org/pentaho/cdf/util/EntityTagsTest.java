@@ -0,0 +1,47 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.cdf.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EntityTagsTest {
+
+  @Test
+  public void testFromInputs() throws Exception {
+    String etag = EntityTags.fromInputs( "a|b" );
+    assertTrue( etag.matches( "W/\"[0-9a-f]{32}\"" ) );
+    assertEquals( etag, EntityTags.fromInputs( "a|b" ) );
+    assertFalse( etag.equals( EntityTags.fromInputs( "a|c" ) ) );
+  }
+
+  @Test
+  public void testMatches() {
+    String etag = "\"0123\"";
+    assertTrue( EntityTags.matches( "\"0123\"", etag ) );
+    assertTrue( EntityTags.matches( "\"abcd\", \"0123\"", etag ) );
+    assertTrue( EntityTags.matches( "W/\"0123\"", etag ) );
+    assertTrue( EntityTags.matches( "*", etag ) );
+    assertTrue( EntityTags.matches( "W/\"0123\"", "W/\"0123\"" ) );
+    assertTrue( EntityTags.matches( "\"0123\"", "W/\"0123\"" ) );
+    assertFalse( EntityTags.matches( "\"abcd\"", etag ) );
+    assertFalse( EntityTags.matches( "0123", etag ) );
+    assertFalse( EntityTags.matches( null, etag ) );
+    assertFalse( EntityTags.matches( "", etag ) );
+    assertFalse( EntityTags.matches( "*", null ) );
+  }
+}